@@ -2,6 +2,7 @@ package es.oo.demo;
 
 import com.google.common.collect.Lists;
 import es.oo.endpoint.ElasticSearchProxy;
+import es.oo.endpoint.RestHighLevelClientAdapterImpl;
 import org.apache.http.HttpHost;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
@@ -27,55 +28,58 @@ public class SimpleWriteSearchApp {
         // use https://www.elastic.co/guide/en/elasticsearch/reference/current/windows.html
         // to install ES on your local machine.
         final String esEndpointUrl = "http://localhost:9200";
-        final RestHighLevelClient highLevelClient =
-                new RestHighLevelClient(RestClient.builder(HttpHost.create(esEndpointUrl)));
-        final ElasticSearchProxy elasticSearchProxy = new ElasticSearchProxy(highLevelClient);
-
-        Thread.sleep(10);
-
-        elasticSearchProxy.writeItem(school.getSchoolId(), school);
-        elasticSearchProxy.writeItem(school2.getSchoolId(), school2);
-
-        // Sleep a little bit - ES is eventual consistency.
-        Thread.sleep(1000);
-
-        // Search for bogus school - no results.
-        final List<School> searchResult1 = elasticSearchProxy.searchForSingleObject(
-                new School(null, "129999", null, "hmmm..."), School.class);
-        assert (searchResult1.size() == 0);
-
-        // Search for school with Students - exact match
-        final List<School> searchResult2 = elasticSearchProxy.searchForSingleObject(school, School.class);
-        assert (searchResult2.size() == 1);
-
-        // Search for school with Students - partial match
-        final School schoolQ = new School(Lists.newArrayList(student), null, null, null);
-        final List<School> searchResult3 = elasticSearchProxy.searchForSingleObject(schoolQ, School.class);
-        assert (searchResult3.size() > 1);
-
-        // Search for school with Students - partial match
-        final School school3 = new School(null, null, null, addressString);
-        final List<School> searchResult4 = elasticSearchProxy.searchForSingleObject(school3, School.class);
-        assert (searchResult4.size() > 1);
-
-        // Search for both schools at once (or query)
-        final List<School> searchQueryList5 = Lists.newArrayList(school, school2);
-        final List<School> searchResult5 =
-                elasticSearchProxy.searchForMultipleObjects(searchQueryList5, School.class);
-        assert (searchResult5.size() == 2);
-
-        // Search for two schools at once (or query) - one is real other is bogus.
-        final School school4 = new School(null, "123", null, "Bogus address");
-        final List<School> searchQueryList6 = Lists.newArrayList(school2, school4);
-        final List<School> searchResult6 =
-                elasticSearchProxy.searchForMultipleObjects(searchQueryList6, School.class);
-        assert (searchResult6.size() == 1);
-
-        // Search for school with the student as a manager
-        final SchoolStaff staff = new SchoolStaff(student.getName(), student.getId(), null);
-        final School schoolQ2 = new School(null, null, staff, null);
-        final List<School> searchResult7 = elasticSearchProxy.searchForSingleObject(schoolQ2, School.class);
-        assert (searchResult7.size() == 0);
+        // Closing the proxy flushes the pending writes and releases its worker thread.
+        // Requests to a node which stops responding fail after 5 seconds.
+        try (RestHighLevelClient highLevelClient = new RestHighLevelClient(RestHighLevelClientAdapterImpl
+                     .withSocketTimeout(RestClient.builder(HttpHost.create(esEndpointUrl)), 5000));
+             ElasticSearchProxy elasticSearchProxy = new ElasticSearchProxy(highLevelClient)) {
+
+            Thread.sleep(10);
+
+            elasticSearchProxy.writeItem(school.getSchoolId(), school);
+            elasticSearchProxy.writeItem(school2.getSchoolId(), school2);
+
+            // Sleep a little bit - ES is eventual consistency.
+            Thread.sleep(1000);
+
+            // Search for bogus school - no results.
+            final List<School> searchResult1 = elasticSearchProxy.searchForSingleObject(
+                    new School(null, "129999", null, "hmmm..."), School.class);
+            assert (searchResult1.size() == 0);
+
+            // Search for school with Students - exact match
+            final List<School> searchResult2 = elasticSearchProxy.searchForSingleObject(school, School.class);
+            assert (searchResult2.size() == 1);
+
+            // Search for school with Students - partial match
+            final School schoolQ = new School(Lists.newArrayList(student), null, null, null);
+            final List<School> searchResult3 = elasticSearchProxy.searchForSingleObject(schoolQ, School.class);
+            assert (searchResult3.size() > 1);
+
+            // Search for school with Students - partial match
+            final School school3 = new School(null, null, null, addressString);
+            final List<School> searchResult4 = elasticSearchProxy.searchForSingleObject(school3, School.class);
+            assert (searchResult4.size() > 1);
+
+            // Search for both schools at once (or query)
+            final List<School> searchQueryList5 = Lists.newArrayList(school, school2);
+            final List<School> searchResult5 =
+                    elasticSearchProxy.searchForMultipleObjects(searchQueryList5, School.class);
+            assert (searchResult5.size() == 2);
+
+            // Search for two schools at once (or query) - one is real other is bogus.
+            final School school4 = new School(null, "123", null, "Bogus address");
+            final List<School> searchQueryList6 = Lists.newArrayList(school2, school4);
+            final List<School> searchResult6 =
+                    elasticSearchProxy.searchForMultipleObjects(searchQueryList6, School.class);
+            assert (searchResult6.size() == 1);
+
+            // Search for school with the student as a manager
+            final SchoolStaff staff = new SchoolStaff(student.getName(), student.getId(), null);
+            final School schoolQ2 = new School(null, null, staff, null);
+            final List<School> searchResult7 = elasticSearchProxy.searchForSingleObject(schoolQ2, School.class);
+            assert (searchResult7.size() == 0);
+        }
     }
 
 
@@ -0,0 +1,119 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+
+/**
+ * An aggregation over an attribute of the objects of a class, computed by elastic search.
+ *
+ * The attribute is given by its path in the class, such as {@code address.city}, and is aggregated at
+ * {@code namespaceMap.<SimpleName>.<path>} (see {@link AttributePaths}). Text attributes are bucketed and counted
+ * on their {@code .keyword} sub field.
+ *
+ * The results of the aggregation are returned as an {@link AggregationResult} - a value for metric aggregations,
+ * and buckets for bucket aggregations.
+ */
+public class Aggregation {
+    public static final int DEFAULT_TERMS_SIZE = 10;
+
+    private enum Type {
+        TERMS, CARDINALITY, MIN, MAX, AVG, HISTOGRAM, DATE_HISTOGRAM
+    }
+
+    private final Type type;
+    private final String field;
+    private final int size;
+    private final double interval;
+    private final DateHistogramInterval dateInterval;
+
+    private Aggregation(final Type type, final String field, final int size, final double interval,
+                        final DateHistogramInterval dateInterval) {
+        this.type = type;
+        this.field = field;
+        this.size = size;
+        this.interval = interval;
+        this.dateInterval = dateInterval;
+    }
+
+    /**
+     * The {@link #DEFAULT_TERMS_SIZE} most common values of the attribute, with the number of objects of each.
+     */
+    public static Aggregation terms(final Class<?> tClass, final String attributePath) {
+        return terms(tClass, attributePath, DEFAULT_TERMS_SIZE);
+    }
+
+    public static Aggregation terms(final Class<?> tClass, final String attributePath, final int size) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
+        return new Aggregation(Type.TERMS, AttributePaths.toField(tClass, attributePath, true), size, 0, null);
+    }
+
+    /**
+     * The approximate number of distinct values of the attribute.
+     */
+    public static Aggregation cardinality(final Class<?> tClass, final String attributePath) {
+        return new Aggregation(Type.CARDINALITY, AttributePaths.toField(tClass, attributePath, true), 0, 0, null);
+    }
+
+    public static Aggregation min(final Class<?> tClass, final String attributePath) {
+        return new Aggregation(Type.MIN, AttributePaths.toField(tClass, attributePath, false), 0, 0, null);
+    }
+
+    public static Aggregation max(final Class<?> tClass, final String attributePath) {
+        return new Aggregation(Type.MAX, AttributePaths.toField(tClass, attributePath, false), 0, 0, null);
+    }
+
+    public static Aggregation avg(final Class<?> tClass, final String attributePath) {
+        return new Aggregation(Type.AVG, AttributePaths.toField(tClass, attributePath, false), 0, 0, null);
+    }
+
+    /**
+     * The number of objects in every interval of a numeric attribute.
+     */
+    public static Aggregation histogram(final Class<?> tClass, final String attributePath, final double interval) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        return new Aggregation(Type.HISTOGRAM, AttributePaths.toField(tClass, attributePath, false), 0, interval,
+                null);
+    }
+
+    /**
+     * The number of objects in every interval of a date attribute. Dates which are indexed as numbers are taken
+     * as epoch millis.
+     */
+    public static Aggregation dateHistogram(final Class<?> tClass, final String attributePath,
+                                           final DateHistogramInterval interval) {
+        Preconditions.checkNotNull(interval);
+        return new Aggregation(Type.DATE_HISTOGRAM, AttributePaths.toField(tClass, attributePath, false), 0, 0,
+                interval);
+    }
+
+    /**
+     * The indexed field which is aggregated.
+     */
+    public String getField() {
+        return this.field;
+    }
+
+    AggregationBuilder toAggregationBuilder(final String name) {
+        switch (this.type) {
+            case TERMS:
+                return AggregationBuilders.terms(name).field(this.field).size(this.size);
+            case CARDINALITY:
+                return AggregationBuilders.cardinality(name).field(this.field);
+            case MIN:
+                return AggregationBuilders.min(name).field(this.field);
+            case MAX:
+                return AggregationBuilders.max(name).field(this.field);
+            case AVG:
+                return AggregationBuilders.avg(name).field(this.field);
+            case HISTOGRAM:
+                return AggregationBuilders.histogram(name).field(this.field).interval(this.interval);
+            case DATE_HISTOGRAM:
+                return AggregationBuilders.dateHistogram(name).field(this.field)
+                        .dateHistogramInterval(this.dateInterval);
+            default:
+                throw new IllegalStateException("unknown aggregation type " + this.type);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package es.oo.endpoint;
+
+/**
+ * A bucket of a terms or histogram {@link Aggregation}.
+ */
+public class AggregationBucket {
+    private final Object key;
+    private final String keyAsString;
+    private final long docCount;
+
+    AggregationBucket(final Object key, final String keyAsString, final long docCount) {
+        this.key = key;
+        this.keyAsString = keyAsString;
+        this.docCount = docCount;
+    }
+
+    /**
+     * The key of the bucket - a string for text terms, and a number for other terms and for histograms (epoch
+     * millis for date histograms).
+     */
+    public Object getKey() {
+        return this.key;
+    }
+
+    /**
+     * The key of the bucket as a string - formatted dates for date histograms.
+     */
+    public String getKeyAsString() {
+        return this.keyAsString;
+    }
+
+    /**
+     * The number of objects in the bucket.
+     */
+    public long getDocCount() {
+        return this.docCount;
+    }
+}
@@ -0,0 +1,31 @@
+package es.oo.endpoint;
+
+import java.util.List;
+
+/**
+ * The result of an {@link Aggregation} - a value for metric aggregations, and buckets for bucket aggregations.
+ */
+public class AggregationResult {
+    private final Double value;
+    private final List<AggregationBucket> buckets;
+
+    AggregationResult(final Double value, final List<AggregationBucket> buckets) {
+        this.value = value;
+        this.buckets = buckets;
+    }
+
+    /**
+     * The value of a metric aggregation, null for bucket aggregations or if no object has the attribute.
+     */
+    public Double getValue() {
+        return this.value;
+    }
+
+    /**
+     * The buckets of a bucket aggregation in the order elastic search returned them, empty for metric
+     * aggregations.
+     */
+    public List<AggregationBucket> getBuckets() {
+        return this.buckets;
+    }
+}
@@ -0,0 +1,87 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.google.common.base.Preconditions;
+import es.oo.model.attributes.AttributesMap;
+
+/**
+ * Translates the path of an attribute in a class, such as {@code address.city}, to the field it is indexed at -
+ * {@code namespaceMap.<SimpleName>.<path>}.
+ *
+ * Paths are resolved against the properties which are indexed for the class, so a path which isn't an attribute
+ * of the class is rejected right away.
+ */
+class AttributePaths {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String KEYWORD_FIELD = ".keyword";
+
+    private AttributePaths() {
+    }
+
+    /**
+     * @param keywordForText whether a text attribute should be translated to its keyword sub field - text fields
+     *                       can't be sorted, bucketed or counted.
+     */
+    static String toField(final Class<?> tClass, final String attributePath, final boolean keywordForText) {
+        Preconditions.checkNotNull(tClass);
+        Preconditions.checkArgument(attributePath != null && !attributePath.isEmpty(), "attributePath is empty");
+
+        final String field = AttributesMap.NAMESPACE_MAP + "." + tClass.getSimpleName() + "." + attributePath;
+        return keywordForText && isTextAttribute(tClass, attributePath) ? field + KEYWORD_FIELD : field;
+    }
+
+    /**
+     * Walks the attribute path through the properties of the class - the keys of map attributes are taken as is,
+     * and the attributes of a collection's elements are attributes of the collection.
+     */
+    private static boolean isTextAttribute(final Class<?> tClass, final String attributePath) {
+        JavaType type = OBJECT_MAPPER.constructType(tClass);
+
+        for (final String attribute : attributePath.split("\\.")) {
+            type = toElementType(type);
+
+            // The values of an untyped attribute can be anything - they are taken as is.
+            if (type.hasRawClass(Object.class)) {
+                return false;
+            }
+
+            if (type.isMapLikeType()) {
+                type = type.getContentType();
+                continue;
+            }
+
+            final JavaType attributeType = findAttributeType(type, attribute);
+            Preconditions.checkArgument(attributeType != null, "%s has no attribute %s",
+                    tClass.getSimpleName(), attributePath);
+            type = attributeType;
+        }
+
+        type = toElementType(type);
+        return CharSequence.class.isAssignableFrom(type.getRawClass()) || type.isEnumType();
+    }
+
+    private static JavaType toElementType(final JavaType type) {
+        JavaType elementType = type;
+        while (elementType.isCollectionLikeType() || elementType.isArrayType()) {
+            elementType = elementType.getContentType();
+        }
+
+        return elementType;
+    }
+
+    private static JavaType findAttributeType(final JavaType type, final String attribute) {
+        for (final BeanPropertyDefinition property :
+                OBJECT_MAPPER.getSerializationConfig().introspect(type).findProperties()) {
+            if (attribute.equals(property.getName())) {
+                // The getter or the field the attribute is serialized from.
+                final AnnotatedMember member = property.getPrimaryMember();
+                return member != null ? member.getType() : null;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package es.oo.endpoint;
+
+import com.google.common.collect.ImmutableMap;
+import es.oo.model.attributes.AttributesMap;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.NestedSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.Map;
+
+/**
+ * Sorts search results by an attribute of the objects of a class, on the shards.
+ *
+ * The attribute is given by its path in the class and is sorted at {@code namespaceMap.<SimpleName>.<path>} (see
+ * {@link AttributePaths}) - text attributes by their {@code .keyword} sub field. The attributes are nested
+ * documents, so the sort is a nested sort - the values are read from the doc values of the nested documents, and
+ * objects without the attribute are sorted last.
+ */
+public class AttributeSort {
+    private static final String ORDER = "order";
+    private static final String NESTED = "nested";
+    private static final String PATH = "path";
+
+    private final String field;
+    private final SortOrder order;
+
+    private AttributeSort(final String field, final SortOrder order) {
+        this.field = field;
+        this.order = order;
+    }
+
+    public static AttributeSort ascending(final Class<?> tClass, final String attributePath) {
+        return new AttributeSort(AttributePaths.toField(tClass, attributePath, true), SortOrder.ASC);
+    }
+
+    public static AttributeSort descending(final Class<?> tClass, final String attributePath) {
+        return new AttributeSort(AttributePaths.toField(tClass, attributePath, true), SortOrder.DESC);
+    }
+
+    /**
+     * The indexed field which is sorted by.
+     */
+    public String getField() {
+        return this.field;
+    }
+
+    public SortOrder getOrder() {
+        return this.order;
+    }
+
+    /**
+     * The sort as an element of the {@code sort} array of a search body.
+     */
+    Map<String, Object> toSortField() {
+        return ImmutableMap.of(this.field, ImmutableMap.of(
+                ORDER, this.order.toString(),
+                NESTED, ImmutableMap.of(PATH, AttributesMap.NAMESPACE_MAP)));
+    }
+
+    FieldSortBuilder toSortBuilder() {
+        return new FieldSortBuilder(this.field)
+                .order(this.order)
+                .setNestedSort(new NestedSortBuilder(AttributesMap.NAMESPACE_MAP));
+    }
+}
@@ -0,0 +1,22 @@
+package es.oo.endpoint;
+
+/**
+ * What a writer does when the indexing buffer of the {@link ElasticSearchProxy} is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Block until there is room in the buffer.
+     */
+    BLOCK,
+
+    /**
+     * Reject the write right away.
+     */
+    FAIL_FAST,
+
+    /**
+     * Block until there is room in the buffer, and reject the write if there is no room within the configured
+     * timeout.
+     */
+    TIMEOUT
+}
@@ -0,0 +1,106 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Encodes pending items straight into the NDJSON body of a bulk request - every item is an upsert:
+ *
+ *     {"update":{"_index":"entities","_type":"attributes","_id":"someId"}}
+ *     {"doc":{"namespaceMap":{...}},"doc_as_upsert":true}
+ *
+ * The items are already serialized, so their bytes are copied as is into a buffer which is reused across bulks.
+ * A buffer is taken from the pool per bulk and should be given back with {@link #release(BulkBuffer)} once the
+ * bulk is done.
+ */
+class BulkEncoder {
+    static final ContentType NDJSON_CONTENT_TYPE = ContentType.create("application/x-ndjson");
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] DOC_PREFIX = "}}\n{\"doc\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOC_SUFFIX = ",\"doc_as_upsert\":true}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .setRootValueSeparator(null);
+    private final byte[] actionPrefix;
+    private final Queue<BulkBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final int maxPooledBuffers;
+    private final long maxPooledBufferSize;
+
+    /**
+     * @param maxPooledBuffers how many buffers are kept for reuse - should be the max number of concurrent bulks.
+     * @param maxPooledBufferSize buffers which grew bigger than this aren't kept for reuse.
+     */
+    BulkEncoder(final String indexName, final String typeName, final int maxPooledBuffers,
+                final long maxPooledBufferSize) {
+        this.actionPrefix = ("{\"update\":{\"_index\":\"" + indexName + "\",\"_type\":\"" + typeName + "\",\"_id\":")
+                .getBytes(StandardCharsets.UTF_8);
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.maxPooledBufferSize = maxPooledBufferSize;
+    }
+
+    BulkBuffer encode(final List<PendingItem> pendingItems) throws IOException {
+        final BulkBuffer buffer = acquire();
+
+        try (JsonGenerator generator = this.jsonFactory.createGenerator(buffer)) {
+            for (final PendingItem pendingItem : pendingItems) {
+                buffer.write(this.actionPrefix);
+
+                // The id is the only part which may need escaping.
+                generator.writeString(pendingItem.getId());
+                generator.flush();
+
+                buffer.write(DOC_PREFIX);
+                buffer.write(pendingItem.getSerializedItem());
+                buffer.write(DOC_SUFFIX);
+            }
+        } catch (final IOException | RuntimeException e) {
+            release(buffer);
+            throw e;
+        }
+
+        return buffer;
+    }
+
+    void release(final BulkBuffer buffer) {
+        if (buffer.capacity() > this.maxPooledBufferSize || this.pool.size() >= this.maxPooledBuffers) {
+            return;
+        }
+
+        buffer.reset();
+        this.pool.offer(buffer);
+    }
+
+    private BulkBuffer acquire() {
+        final BulkBuffer buffer = this.pool.poll();
+        return buffer != null ? buffer : new BulkBuffer();
+    }
+
+    /**
+     * A growing byte buffer which exposes its content without copying it.
+     */
+    static class BulkBuffer extends ByteArrayOutputStream {
+        private BulkBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return this.buf.length;
+        }
+
+        HttpEntity toEntity() {
+            return new NByteArrayEntity(this.buf, 0, this.count, NDJSON_CONTENT_TYPE);
+        }
+    }
+}
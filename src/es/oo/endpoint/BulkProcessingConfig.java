@@ -0,0 +1,225 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of the bulk indexing pipeline of the {@link ElasticSearchProxy}.
+ *
+ * A bulk is flushed to elastic search on whichever comes first:
+ * 1. The number of pending actions reached {@link #getMaxActions()}.
+ * 2. The size of the pending actions reached {@link #getMaxBytes()}.
+ * 3. The oldest pending action waited {@link #getMaxLingerMillis()}.
+ *
+ * Up to {@link #getMaxInFlightBulks()} bulks are sent concurrently. When that limit is reached the pending actions
+ * keep piling up, and once {@link #getMaxBufferedActions()} actions are either pending or in flight the writers
+ * are pushed back according to the {@link BackpressurePolicy}.
+ *
+ * Writes to an id which is already pending are folded into the pending write according to the
+ * {@link CoalescingMode}.
+ *
+ * Failed writes are retried according to the {@link RetryPolicy}. A write to an id which is in flight - sent, or
+ * waiting for a retry - is held back until the earlier write is done, so writes to the same id are indexed in the
+ * order they were written.
+ *
+ * When a journal directory is set, every write is journaled to a {@link es.oo.journal.WriteAheadJournal} before
+ * it is queued, and the journaled writes which weren't indexed yet are indexed again when the proxy starts.
+ *
+ * The searches of the proxy are configured apart, by a {@link SearchConfig}.
+ */
+public class BulkProcessingConfig {
+    public static final int DEFAULT_MAX_ACTIONS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    public static final long DEFAULT_MAX_LINGER_MILLIS = 50;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BULKS = 4;
+    public static final int DEFAULT_MAX_BUFFERED_ACTIONS = 10 * DEFAULT_MAX_ACTIONS;
+    public static final long DEFAULT_BACKPRESSURE_TIMEOUT_MILLIS = 1000;
+    public static final long DEFAULT_JOURNAL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_JOURNAL_FSYNC_INTERVAL_MILLIS = 5;
+
+    private final int maxActions;
+    private final long maxBytes;
+    private final long maxLingerMillis;
+    private final int maxInFlightBulks;
+    private final int maxBufferedActions;
+    private final BackpressurePolicy backpressurePolicy;
+    private final long backpressureTimeoutMillis;
+    private final CoalescingMode coalescingMode;
+    private final RetryPolicy retryPolicy;
+    private final Path journalDirectory;
+    private final long journalSegmentBytes;
+    private final long journalFsyncIntervalMillis;
+
+    private BulkProcessingConfig(final Builder builder) {
+        this.maxActions = builder.maxActions;
+        this.maxBytes = builder.maxBytes;
+        this.maxLingerMillis = builder.maxLingerMillis;
+        this.maxInFlightBulks = builder.maxInFlightBulks;
+        this.maxBufferedActions = builder.maxBufferedActions;
+        this.backpressurePolicy = builder.backpressurePolicy;
+        this.backpressureTimeoutMillis = builder.backpressureTimeoutMillis;
+        this.coalescingMode = builder.coalescingMode;
+        this.retryPolicy = builder.retryPolicy;
+        this.journalDirectory = builder.journalDirectory;
+        this.journalSegmentBytes = builder.journalSegmentBytes;
+        this.journalFsyncIntervalMillis = builder.journalFsyncIntervalMillis;
+    }
+
+    public static BulkProcessingConfig defaultConfig() {
+        return createBuilder().build();
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    public int getMaxActions() {
+        return this.maxActions;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getMaxLingerMillis() {
+        return this.maxLingerMillis;
+    }
+
+    public int getMaxInFlightBulks() {
+        return this.maxInFlightBulks;
+    }
+
+    public int getMaxBufferedActions() {
+        return this.maxBufferedActions;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return this.backpressurePolicy;
+    }
+
+    /**
+     * How long a writer waits for buffer capacity when the policy is {@link BackpressurePolicy#TIMEOUT}.
+     */
+    public long getBackpressureTimeoutMillis() {
+        return this.backpressureTimeoutMillis;
+    }
+
+    public CoalescingMode getCoalescingMode() {
+        return this.coalescingMode;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * The directory of the write ahead journal, null if writes aren't journaled.
+     */
+    public Path getJournalDirectory() {
+        return this.journalDirectory;
+    }
+
+    public long getJournalSegmentBytes() {
+        return this.journalSegmentBytes;
+    }
+
+    public long getJournalFsyncIntervalMillis() {
+        return this.journalFsyncIntervalMillis;
+    }
+
+    /**
+     * A builder for {@link BulkProcessingConfig}.
+     */
+    public static class Builder {
+        private int maxActions = DEFAULT_MAX_ACTIONS;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private long maxLingerMillis = DEFAULT_MAX_LINGER_MILLIS;
+        private int maxInFlightBulks = DEFAULT_MAX_IN_FLIGHT_BULKS;
+        private int maxBufferedActions = DEFAULT_MAX_BUFFERED_ACTIONS;
+        private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+        private long backpressureTimeoutMillis = DEFAULT_BACKPRESSURE_TIMEOUT_MILLIS;
+        private CoalescingMode coalescingMode = CoalescingMode.NONE;
+        private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
+        private Path journalDirectory = null;
+        private long journalSegmentBytes = DEFAULT_JOURNAL_SEGMENT_BYTES;
+        private long journalFsyncIntervalMillis = DEFAULT_JOURNAL_FSYNC_INTERVAL_MILLIS;
+
+        private Builder() {}
+
+        public Builder withMaxActions(final int maxActions) {
+            Preconditions.checkArgument(maxActions > 0, "maxActions must be positive");
+            this.maxActions = maxActions;
+            return this;
+        }
+
+        public Builder withMaxBytes(final long maxBytes) {
+            Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withMaxLingerMillis(final long maxLingerMillis) {
+            Preconditions.checkArgument(maxLingerMillis >= 0, "maxLingerMillis can't be negative");
+            this.maxLingerMillis = maxLingerMillis;
+            return this;
+        }
+
+        public Builder withMaxInFlightBulks(final int maxInFlightBulks) {
+            Preconditions.checkArgument(maxInFlightBulks > 0, "maxInFlightBulks must be positive");
+            this.maxInFlightBulks = maxInFlightBulks;
+            return this;
+        }
+
+        public Builder withMaxBufferedActions(final int maxBufferedActions) {
+            Preconditions.checkArgument(maxBufferedActions > 0, "maxBufferedActions must be positive");
+            this.maxBufferedActions = maxBufferedActions;
+            return this;
+        }
+
+        public Builder withBackpressurePolicy(final BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = Preconditions.checkNotNull(backpressurePolicy);
+            return this;
+        }
+
+        public Builder withBackpressureTimeoutMillis(final long backpressureTimeoutMillis) {
+            Preconditions.checkArgument(backpressureTimeoutMillis >= 0,
+                    "backpressureTimeoutMillis can't be negative");
+            this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+            return this;
+        }
+
+        public Builder withCoalescingMode(final CoalescingMode coalescingMode) {
+            this.coalescingMode = Preconditions.checkNotNull(coalescingMode);
+            return this;
+        }
+
+        public Builder withRetryPolicy(final RetryPolicy retryPolicy) {
+            this.retryPolicy = Preconditions.checkNotNull(retryPolicy);
+            return this;
+        }
+
+        public Builder withJournalDirectory(final Path journalDirectory) {
+            this.journalDirectory = journalDirectory;
+            return this;
+        }
+
+        public Builder withJournalSegmentBytes(final long journalSegmentBytes) {
+            Preconditions.checkArgument(journalSegmentBytes > 0 && journalSegmentBytes <= Integer.MAX_VALUE,
+                    "journalSegmentBytes must be positive and fit a memory mapped file");
+            this.journalSegmentBytes = journalSegmentBytes;
+            return this;
+        }
+
+        public Builder withJournalFsyncIntervalMillis(final long journalFsyncIntervalMillis) {
+            Preconditions.checkArgument(journalFsyncIntervalMillis >= 0,
+                    "journalFsyncIntervalMillis can't be negative");
+            this.journalFsyncIntervalMillis = journalFsyncIntervalMillis;
+            return this;
+        }
+
+        public BulkProcessingConfig build() {
+            return new BulkProcessingConfig(this);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package es.oo.endpoint;
+
+/**
+ * What the {@link ElasticSearchProxy} does with a write to an id which is already waiting for the next bulk.
+ * In all the modes the callers of both writes get the outcome of the same bulk item.
+ */
+public enum CoalescingMode {
+    /**
+     * The later write is dropped.
+     */
+    NONE,
+
+    /**
+     * The later write replaces the pending one. Note that the upsert is done with the later item only, so
+     * attributes which exist only in the pending write aren't indexed.
+     */
+    LAST_WRITER_WINS,
+
+    /**
+     * The later write is deep merged into the pending one (see {@link es.oo.model.attributes.AttributesMap#merge}),
+     * which is the same as indexing the two writes one after the other.
+     */
+    MERGE
+}
@@ -1,17 +1,23 @@
 package es.oo.endpoint;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import es.oo.exceptions.IndexingException;
+import es.oo.exceptions.IndexingRejectedException;
 import es.oo.exceptions.InternalServiceException;
-import es.oo.exceptions.InvalidDataException;
 import es.oo.exceptions.SameItemIndexCollisionException;
+import es.oo.journal.JournalRecord;
+import es.oo.journal.WriteAheadJournal;
 import es.oo.model.attributes.AttributesMap;
 import es.oo.model.attributes.AttributesMapsList;
+import es.oo.model.attributes.searchable.QueryMode;
 import es.oo.model.attributes.searchable.SearchableAttributesMapsList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,49 +25,185 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
-import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.nested.NestedAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
 import javax.ws.rs.core.Response.Status;
 
 import javax.ws.rs.HttpMethod;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An proxy for elastic search.
+ *
+ * The proxy owns a worker thread, so it should be closed once it isn't needed anymore - closing it flushes the
+ * pending writes and waits for them to be indexed.
  */
-public class ElasticSearchProxy implements Runnable {
-    private static final Integer MIN_MILLIS_BETWEEN_CALLS = 500;
+public class ElasticSearchProxy implements Runnable, AutoCloseable {
     private static final String INDEX_NAME = "entities";
     private static final String TYPE_NAME = "attributes";
     private static final String SEARCH_PATH = "_search";
-
-    private CountDownLatch indexingIsDone = new CountDownLatch(1);
-    private final Lock lock = new ReentrantLock();
+    private static final String COUNT_PATH = "_count";
+    private static final String MULTI_GET_PATH = "_mget";
+    private static final String SOURCE_INCLUDE_PARAM = "_source_include";
+    private static final String IGNORE_PARAM = "ignore";
+    private static final String SCROLL_PATH = "/_search/scroll";
+    private static final String SOURCE = "_source";
+    private static final String INCLUDES = "includes";
+    private static final String SIZE = "size";
+    private static final String SORT = "sort";
+    private static final String TIMEOUT = "timeout";
+    private static final String TERMINATE_AFTER = "terminate_after";
+    private static final String SCROLL_KEEP_ALIVE = "1m";
+    private static final int DEFAULT_SEARCH_PAGE_SIZE = 1000;
+    private static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(30);
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SearchResponseDecoder searchResponseDecoder = new SearchResponseDecoder(this.objectMapper);
 
-    private final Map<String, String> idToItemMap = new HashMap<>();
+    /**
+     * The buffer producers add items to. The worker swaps it with an empty buffer on every flush.
+     */
+    private final AtomicReference<IngestionBuffer> activeBuffer = new AtomicReference<>(new IngestionBuffer());
     private final Thread worker;
+    private final BulkProcessingConfig config;
+    private final SearchConfig searchConfig;
+
+    /**
+     * Room for items which are either pending or in flight, and permits for concurrent in flight bulks.
+     */
+    private final Semaphore bufferCapacity;
+    private final Semaphore inFlightBulks;
+
+    /**
+     * Folds a write into a pending write to the same id, null if writes to a pending id are dropped.
+     */
+    private final BinaryOperator<PendingItem> coalescer;
+
+    /**
+     * Failed items wait here for their backoff before they are sent again.
+     */
+    private final RetryPolicy retryPolicy;
+    private final ScheduledExecutorService retryScheduler;
+
+    /**
+     * The items which were sent and aren't done yet, including their retries, by their ids. A later write to one
+     * of these ids is held back until the item is done, so a retry or a slow bulk never overwrites a newer write.
+     */
+    private final ConcurrentMap<String, PendingItem> inFlightItems = new ConcurrentHashMap<>();
+
+    /**
+     * The held back writes of every in flight id, in the order they were written. Owned by the worker.
+     */
+    private final Map<String, Deque<PendingItem>> heldItems = new HashMap<>();
+    private volatile boolean hasHeldItems = false;
+
+    /**
+     * Set once an in flight item of a held back id is done, so the worker flushes the held back writes.
+     */
+    private volatile boolean heldItemsReleased = false;
+
+    /**
+     * Decodes the responses of async searches, and fetches the pages of streamed searches in the background.
+     * The executor is shut down on close only if the proxy created it.
+     */
+    private final Executor searchExecutor;
+    private final ExecutorService ownedSearchExecutor;
+
+    /**
+     * Gathers concurrent searches into {@code _msearch} requests, null if searches aren't batched.
+     */
+    private final MultiSearchBatcher multiSearchBatcher;
+
+    /**
+     * Caches the results of map searches, null if search results aren't cached.
+     */
+    private final SearchResultCache searchResultCache;
+
+    /**
+     * Coalesces identical searches which are in flight together, null if searches aren't coalesced.
+     */
+    private final InFlightSearches inFlightSearches;
+
+    /**
+     * Fires the deadlines and the hedges of searches. Searches are hedged only if the hedger isn't null.
+     */
+    private final ScheduledExecutorService searchTimer;
+    private final SearchHedger searchHedger;
+
+    private final BulkEncoder bulkEncoder;
+
+    /**
+     * Every write is journaled here before it is queued, null if writes aren't journaled.
+     */
+    private final WriteAheadJournal journal;
+
+    /**
+     * True while the worker is parked waiting for the first item of a buffer.
+     */
+    private volatile boolean workerIdle = false;
+    private volatile boolean stop = false;
+
+    /**
+     * Writes are rejected once the proxy is closed. Close waits for the writes which are already in progress.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicInteger activeWriters = new AtomicInteger(0);
+
+    /**
+     * Whether all the pending writes were done when the proxy was closed.
+     */
+    private final CompletableFuture<Boolean> drainResult = new CompletableFuture<>();
+
+    /**
+     * Set once close gave up waiting for the pending writes, so the worker stops flushing them.
+     */
+    private volatile boolean drainAbandoned = false;
 
-    private boolean stop = false;
-    private Map<String, BulkItemResponse> bulkResult;
+    /**
+     * Set once the worker is done - no buffer is flushed anymore, so writes which still get to a buffer are
+     * rejected.
+     */
+    private volatile boolean workerDone = false;
 
 
-    private static final String HITS = "hits";
     private static final String ID = "_id";
-    private static final String SOURCE = "_source";
 
     /**
      * REST client to interact with elastic search.
@@ -80,50 +222,281 @@ public class ElasticSearchProxy implements Runnable {
     }
 
     public ElasticSearchProxy(final RestHighLevelClientAdapter elasticSearchClient) {
+        this(elasticSearchClient, BulkProcessingConfig.defaultConfig());
+    }
+
+    public ElasticSearchProxy(final RestHighLevelClientAdapter elasticSearchClient,
+                              final BulkProcessingConfig config) {
+        this(elasticSearchClient, config, SearchConfig.defaultConfig());
+    }
+
+    public ElasticSearchProxy(final RestHighLevelClientAdapter elasticSearchClient,
+                              final BulkProcessingConfig config,
+                              final SearchConfig searchConfig) {
+        this(elasticSearchClient, config, searchConfig, null);
+    }
+
+    /**
+     * @param searchExecutor decodes the responses of async searches - if null, the proxy uses its own pool of
+     *                       daemon threads.
+     */
+    public ElasticSearchProxy(final RestHighLevelClientAdapter elasticSearchClient,
+                              final BulkProcessingConfig config,
+                              final SearchConfig searchConfig,
+                              final Executor searchExecutor) {
         this.elasticSearchClient = elasticSearchClient;
+        this.config = config;
+        this.searchConfig = searchConfig;
+        this.bufferCapacity = new Semaphore(config.getMaxBufferedActions());
+        this.inFlightBulks = new Semaphore(config.getMaxInFlightBulks());
+        this.coalescer = createCoalescer(config.getCoalescingMode());
+        this.retryPolicy = config.getRetryPolicy();
+        this.bulkEncoder = new BulkEncoder(INDEX_NAME, TYPE_NAME, config.getMaxInFlightBulks(),
+                2 * config.getMaxBytes());
+        this.ownedSearchExecutor = searchExecutor != null ? null : Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("elastic-search-proxy-search-%d").setDaemon(true).build());
+        this.searchExecutor = searchExecutor != null ? searchExecutor : this.ownedSearchExecutor;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("elastic-search-proxy-retry-%d").setDaemon(true).build());
         this.elasticLowLevelClient = elasticSearchClient.getLowLevelClient();
+        this.multiSearchBatcher = searchConfig.getMaxSearchBatchSize() > 1
+                ? new MultiSearchBatcher(this.elasticLowLevelClient, INDEX_NAME,
+                        searchConfig.getMaxSearchBatchSize(), searchConfig.getSearchBatchLingerMillis(),
+                        this.searchExecutor)
+                : null;
+        this.searchResultCache = searchConfig.getSearchCacheMaxEntries() > 0
+                ? new SearchResultCache(searchConfig.getSearchCacheMaxEntries(),
+                        searchConfig.getSearchCacheTtlMillis(), searchConfig.getSearchCacheRefreshIntervalMillis())
+                : null;
+        this.inFlightSearches = searchConfig.isSearchCoalescing() ? new InFlightSearches() : null;
+        this.searchTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("elastic-search-proxy-search-timer-%d").setDaemon(true).build());
+        this.searchHedger = searchConfig.getHedgingPolicy() != null
+                ? new SearchHedger(searchConfig.getHedgingPolicy(), this.searchTimer)
+                : null;
+        this.journal = openJournal(config);
 
         this.elasticSearchClient.createIndex(INDEX_NAME, TYPE_NAME);
 
         this.worker = new Thread(this);
         this.worker.start();
+
+        if (this.journal != null) {
+            replayJournal(this.journal.getRecoveredRecords());
+        }
     }
 
-    @Override
-    public void finalize() {
-        stop = true;
+    private static WriteAheadJournal openJournal(final BulkProcessingConfig config) {
+        if (config.getJournalDirectory() == null) {
+            return null;
+        }
+
+        try {
+            return WriteAheadJournal.open(config.getJournalDirectory(), config.getJournalSegmentBytes(),
+                    config.getJournalFsyncIntervalMillis());
+        } catch (final IOException e) {
+            throw new InternalServiceException(e);
+        }
+    }
+
+    /**
+     * Queues the journaled writes which weren't indexed before the proxy was restarted. The writes to the same id
+     * are folded in order like writes to a pending id, according to the configured {@link CoalescingMode}, and
+     * their records are acknowledged together once the folded item is indexed.
+     */
+    private void replayJournal(final List<JournalRecord> recoveredRecords) {
+        final Map<String, List<JournalRecord>> idToRecords = new LinkedHashMap<>();
+        recoveredRecords.forEach(record ->
+                idToRecords.computeIfAbsent(record.getId(), id -> new ArrayList<>()).add(record));
+
+        idToRecords.forEach((id, records) -> {
+            try {
+                PendingItem replayedItem = null;
+                for (final JournalRecord record : records) {
+                    final PendingItem recordItem = new PendingItem(id,
+                            this.objectMapper.readValue(record.getDocument(), AttributesMap.class),
+                            record.getDocument());
+
+                    if (replayedItem == null) {
+                        replayedItem = recordItem;
+                    } else if (this.coalescer != null) {
+                        replayedItem = this.coalescer.apply(replayedItem, recordItem);
+                    }
+                }
+
+                final PendingItem queuedItem = addItemToMap(replayedItem);
+                records.forEach(record -> acknowledgeWhenIndexed(queuedItem.getResult(), record));
+            } catch (final IOException | IndexingException e) {
+                log.error("Failed to replay the journaled writes for id: " + id, e);
+            }
+        });
     }
 
     public void run() {
         while (!stop) {
             try {
-                Thread.sleep(getMinMillisBetweenCalls());
-                if (this.idToItemMap.size() > 0) {
+                if (awaitFlushTrigger()) {
                     indexDataToEs();
                 }
             } catch (Exception e) {
                 log.error(e);
             }
         }
+
+        // Flush whatever was written before the proxy was closed.
+        try {
+            while ((!this.activeBuffer.get().isEmpty() || this.hasHeldItems) && !this.drainAbandoned) {
+                if (this.activeBuffer.get().isEmpty() && !this.heldItemsReleased) {
+                    // Only held back writes are left - wait for the writes to the same ids to be done.
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+
+                indexDataToEs();
+            }
+        } catch (Exception e) {
+            log.error(e);
+        }
+
+        rejectUnflushedItems();
+    }
+
+    /**
+     * Fails the items which the worker didn't send. From now on the active buffer is sealed, so writers which are
+     * still in the middle of a write fail fast instead of leaving their items in a buffer nobody flushes.
+     */
+    private void rejectUnflushedItems() {
+        this.workerDone = true;
+
+        final IngestionBuffer closedBuffer = new IngestionBuffer();
+        closedBuffer.seal();
+        final IngestionBuffer lastBuffer = this.activeBuffer.getAndSet(closedBuffer);
+        lastBuffer.seal();
+
+        final Exception e = new IllegalStateException("The proxy was closed before the item was sent");
+        failBulkItems(lastBuffer.getItems(), e);
+        this.heldItems.values().forEach(items -> failBulkItems(new ArrayList<>(items), e));
+        this.heldItems.clear();
+        this.hasHeldItems = false;
+    }
+
+    /**
+     * Closes the proxy, waiting up to 30 seconds for the pending writes to be indexed.
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Closes the proxy - new writes are rejected, the pending writes are flushed, and the proxy waits up to the
+     * given timeout for them to be indexed (including their retries) before its threads are released.
+     *
+     * @return true if all the pending writes were done within the timeout. If the proxy is already closed, the
+     * result of the first close, once it is done.
+     */
+    public boolean close(final Duration timeout) {
+        if (!this.closed.compareAndSet(false, true)) {
+            try {
+                return this.drainResult.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (final ExecutionException | TimeoutException e) {
+                return false;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        final long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        boolean drained = false;
+
+        try {
+            // Writers which passed the closed check should get their items into the buffer before the last flush.
+            while (this.activeWriters.get() > 0 && System.nanoTime() < deadlineNanos) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+            }
+
+            this.stop = true;
+            LockSupport.unpark(this.worker);
+            this.worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+
+            // Every pending item holds a buffer capacity permit until it is done.
+            drained = this.bufferCapacity.tryAcquire(this.config.getMaxBufferedActions(),
+                    Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!drained) {
+            log.warn("The proxy was closed before all the pending writes were indexed");
+            abandonPendingWrites();
+        }
+
+        this.retryScheduler.shutdownNow();
+        this.searchTimer.shutdownNow();
+        if (this.multiSearchBatcher != null) {
+            this.multiSearchBatcher.close();
+        }
+        if (this.ownedSearchExecutor != null) {
+            this.ownedSearchExecutor.shutdownNow();
+        }
+
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            } catch (final IOException e) {
+                log.error(e);
+            }
+        }
+
+        this.drainResult.complete(drained);
+        return drained;
+    }
+
+    /**
+     * Stops the worker and fails the items which are in flight - nobody waits for their responses or retries
+     * anymore. Journaled items are kept in the journal, so they are indexed again once the proxy is restarted.
+     */
+    private void abandonPendingWrites() {
+        this.drainAbandoned = true;
+        this.worker.interrupt();
+
+        failBulkItems(new ArrayList<>(this.inFlightItems.values()),
+                new IllegalStateException("The proxy was closed before the item was indexed"));
     }
 
     /**
      * Search for objects similar to the given object, and translate the results to the given class type.
      */
     public <T> List<T> searchForSingleObject(final T searchObject, Class<T> tClass) {
-        return searchForSingleMap(searchObject).stream()
-                .map((attributesMap ->attributesMap.toObject(tClass)))
-                .collect(Collectors.toList());
+        return searchForSingleObject(searchObject, tClass, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForSingleObject(Object, Class)}, with the given search options.
+     */
+    public <T> List<T> searchForSingleObject(final T searchObject, final Class<T> tClass,
+                                             final SearchOptions searchOptions) {
+        final List<Object> searchObjectsList = Lists.newArrayList(searchObject);
+        return searchHits(searchObjectsList, searchOptions, toSourceIncludes(searchOptions, tClass), tClass,
+                parser -> this.searchResponseDecoder.decode(parser, tClass));
     }
 
     /**
      * Search for objects similar to the given object, and translate the results to the given class type.
      */
     public <T> List<T> searchForMultipleObjects(final List<T> searchList, Class<T> tClass) {
+        return searchForMultipleObjects(searchList, tClass, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForMultipleObjects(List, Class)}, with the given search options.
+     */
+    public <T> List<T> searchForMultipleObjects(final List<T> searchList, final Class<T> tClass,
+                                                final SearchOptions searchOptions) {
         final List<Object> searchObjectsList = Lists.newArrayList(searchList);
-        return searchForMultipleMaps(searchObjectsList).stream()
-                .map((attributesMap ->attributesMap.toObject(tClass)))
-                .collect(Collectors.toList());
+        return searchHits(searchObjectsList, searchOptions, toSourceIncludes(searchOptions, tClass), tClass,
+                parser -> this.searchResponseDecoder.decode(parser, tClass));
     }
 
 
@@ -131,187 +504,1166 @@ public class ElasticSearchProxy implements Runnable {
      * Search for objects similar to the given object, return the result as a list of {@link AttributesMap}.
      */
     public List<AttributesMap> searchForSingleMap(final Object searchObject) {
+        return searchForSingleMap(searchObject, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForSingleMap(Object)}, with the given search options.
+     */
+    public List<AttributesMap> searchForSingleMap(final Object searchObject, final SearchOptions searchOptions) {
         final List<Object> searchObjectsList = Lists.newArrayList(searchObject);
-        return searchForMultipleMaps(searchObjectsList);
+        return searchForMultipleMaps(searchObjectsList, searchOptions);
     }
 
     /**
      * Search for objects similar to at least one of the given objects, return the result as a list of {@link AttributesMap}.
      */
     public List<AttributesMap> searchForMultipleMaps(final List<Object> searchObjectsList) {
+        return searchForMultipleMaps(searchObjectsList, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForMultipleMaps(List)}, with the given search options.
+     */
+    public List<AttributesMap> searchForMultipleMaps(final List<Object> searchObjectsList,
+                                                     final SearchOptions searchOptions) {
+        if (this.searchResultCache == null) {
+            return searchHits(searchObjectsList, searchOptions, searchOptions.getSourceIncludes(),
+                    AttributesMap.class, this.searchResponseDecoder::decode);
+        }
+
+        final SearchableAttributesMapsList searchableAttributesMapsList;
+        final String queryDsl;
         try {
-            final List<List<Object>> searchObjectsLists =
-                    searchObjectsList.stream().map(entity -> Lists.newArrayList(entity))
-                            .collect(Collectors.toList());
-            final AttributesMapsList attributesMapsList =
-                    AttributesMapsList.toAttributesMapsList(searchObjectsLists);
-            final SearchableAttributesMapsList searchableAttributesMap =
-                    new SearchableAttributesMapsList(attributesMapsList);
-            final String queryDsl = searchableAttributesMap.toDslQueryString();
+            searchableAttributesMapsList = toSearchableAttributesMapsList(searchObjectsList);
+            // The query mode and the source fields are part of the DSL, so such searches are cached apart.
+            queryDsl = toQueryDsl(searchableAttributesMapsList, searchOptions, searchOptions.getSourceIncludes());
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
 
-            final Response response = search(queryDsl);
+        final List<AttributesMap> cachedResults = this.searchResultCache.get(queryDsl);
+        if (cachedResults != null) {
+            return cachedResults;
+        }
+
+        final long searchStartNanos = this.searchResultCache.currentTimeNanos();
+        final List<AttributesMap> results = searchHits(queryDsl, searchOptions, AttributesMap.class,
+                this.searchResponseDecoder::decode);
+        if (results == null) {
+            return null;
+        }
+
+        this.searchResultCache.put(queryDsl, searchableAttributesMapsList, results, searchStartNanos);
+        return results;
+    }
 
+    /**
+     * Get the object of the given class which was written with the given id, null if there's none. Unlike a
+     * search, a get is real time - it sees writes which weren't refreshed yet.
+     */
+    public <T> T get(final String id, final Class<T> tClass) {
+        Preconditions.checkNotNull(id);
+
+        try {
+            final Map<String, String> params = ImmutableMap.of(
+                    SOURCE_INCLUDE_PARAM, toNamespacePath(tClass),
+                    IGNORE_PARAM, String.valueOf(Status.NOT_FOUND.getStatusCode()));
+            final Response response = this.elasticLowLevelClient.performRequest(HttpMethod.GET,
+                    "/" + INDEX_NAME + "/" + TYPE_NAME + "/" + encodePathSegment(id), params);
+
+            if (response.getStatusLine().getStatusCode() == Status.NOT_FOUND.getStatusCode()
+                    || Objects.isNull(response.getEntity())) {
+                return null;
+            }
             if (response.getStatusLine().getStatusCode() != Status.OK.getStatusCode()) {
                 throw new InternalServiceException("internal failure");
             }
 
-            if (Objects.isNull(response.getEntity())) {
-                return null;
+            try (InputStream content = response.getEntity().getContent()) {
+                return this.searchResponseDecoder.decodeDocument(content, tClass);
             }
-
-            final String responseEntity = EntityUtils.toString(response.getEntity());
-            return buildIdToAttributesMap(responseEntity);
         } catch (IOException e) {
             throw new InternalServiceException(e);
         }
     }
 
-    public Response search(final String queryDsl) {
+    /**
+     * Get the objects of the given class which were written with the given ids, in a single real time request.
+     *
+     * @return the objects by their ids - ids without an object are left out.
+     */
+    public <T> Map<String, T> multiGet(final Collection<String> ids, final Class<T> tClass) {
+        if (ids.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
         try {
-            final String queryPath = new StringBuilder().append("/").append(INDEX_NAME).append("/").append(SEARCH_PATH)
-                    .toString();
-            final HttpEntity entity = new NStringEntity(queryDsl, ContentType.APPLICATION_JSON);
-            final Map<String, String> params = Maps.newHashMap();
-            final Header[] headers = new Header[0];
-            final String method = HttpMethod.GET;
-            final Response response =
-                    this.elasticLowLevelClient.performRequest(method, queryPath, params, entity, headers);
+            final String body = this.objectMapper.writeValueAsString(ImmutableMap.of("ids", ids));
+            final Response response = performJsonRequest(HttpMethod.POST,
+                    "/" + INDEX_NAME + "/" + TYPE_NAME + "/" + MULTI_GET_PATH,
+                    Collections.singletonMap(SOURCE_INCLUDE_PARAM, toNamespacePath(tClass)), body);
 
-            return response;
+            if (Objects.isNull(response.getEntity())) {
+                return new LinkedHashMap<>();
+            }
+
+            try (InputStream content = response.getEntity().getContent()) {
+                return this.searchResponseDecoder.decodeDocuments(content, tClass);
+            }
         } catch (IOException e) {
             throw new InternalServiceException(e);
         }
     }
 
-    public void writeItem(final String id, final Object item) throws IndexingException,
-            IOException {
+    /**
+     * Ids are written as is, so they are encoded to be a single segment of the document's path.
+     */
+    private static String encodePathSegment(final String id) throws UnsupportedEncodingException {
+        return URLEncoder.encode(id, StandardCharsets.UTF_8.name()).replace("+", "%20");
+    }
 
-        addItemToMap(id, AttributesMap.toAttributesMap(item));
+    /**
+     * Count the objects similar to the given object, without fetching them.
+     */
+    public long count(final Object searchObject) {
+        return count(searchObject, SearchOptions.defaultOptions());
+    }
 
+    /**
+     * Like {@link #count(Object)}, with the given search options.
+     */
+    public long count(final Object searchObject, final SearchOptions searchOptions) {
         try {
-            this.indexingIsDone.await();
-        } catch (final Exception e) {
-            throw new IndexingException(e);
-        }
-
-        if (bulkResult == null) {
-            throw new IndexingException(id);
-        }
+            // A count body has only a query - the size, sort and timeout of the options aren't valid in it.
+            final String queryDsl = toQueryOnlyDsl(
+                    toSearchableAttributesMapsList(Lists.newArrayList(searchObject)), searchOptions);
+            final Response response = performJsonRequest(HttpMethod.POST, "/" + INDEX_NAME + "/" + COUNT_PATH,
+                    Collections.emptyMap(), queryDsl);
 
-        final BulkItemResponse bulkResultItem = getItemFromBulkResponse(id);
+            if (Objects.isNull(response.getEntity())) {
+                return 0;
+            }
 
-        if (bulkResultItem.isFailed()) {
-            throw new IndexingException(id, INDEX_NAME, bulkResultItem.getFailure());
+            try (InputStream content = response.getEntity().getContent()) {
+                return this.searchResponseDecoder.decodeCount(content);
+            }
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
         }
     }
 
-    @VisibleForTesting
-    protected BulkItemResponse getItemFromBulkResponse(final String id) {
-        return this.bulkResult.get(id);
-    }
-
-    @VisibleForTesting
-    protected String serializedItem(final Object item) throws JsonProcessingException {
-        return objectMapper.writeValueAsString(item);
+    /**
+     * Check whether there's any object similar to the given object. Every shard stops searching on its first hit,
+     * and no hit is fetched.
+     */
+    public boolean exists(final Object searchObject) {
+        return exists(searchObject, SearchOptions.defaultOptions());
     }
 
-    @VisibleForTesting
-    protected void indexDataToEs() {
+    /**
+     * Like {@link #exists(Object)}, with the given search options - exact lookups are best done in
+     * {@link QueryMode#FILTER}.
+     */
+    public boolean exists(final Object searchObject, final SearchOptions searchOptions) {
         try {
-            lock.lock();
+            final String queryDsl = SearchBody.withFields(this.objectMapper,
+                    toQueryOnlyDsl(toSearchableAttributesMapsList(Lists.newArrayList(searchObject)), searchOptions),
+                    ImmutableMap.of(SIZE, 0, TERMINATE_AFTER, 1));
+            final Response response = performJsonRequest(HttpMethod.POST, "/" + INDEX_NAME + "/" + SEARCH_PATH,
+                    Collections.emptyMap(), queryDsl);
 
-            if (this.idToItemMap.size() > 0) {
-                final BulkRequest bulkUpdateRequest = new BulkRequest();
+            if (Objects.isNull(response.getEntity())) {
+                return false;
+            }
 
-                this.idToItemMap.entrySet().stream().forEach(entry -> {
-                    // More details about upsert at
-                    // https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/
-                    // java-rest-high-document-update.html
-                    final UpdateRequest updateRequest = new UpdateRequest(INDEX_NAME, TYPE_NAME, entry.getKey());
-                    updateRequest.doc(entry.getValue(), XContentType.JSON);
-                    updateRequest.docAsUpsert(true);
+            try (InputStream content = response.getEntity().getContent()) {
+                return this.searchResponseDecoder.decodeTotalHits(content) > 0;
+            }
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
+    }
 
-                    bulkUpdateRequest.add(updateRequest);
-                });
+    /**
+     * Aggregate the objects similar to the given object, see {@link Aggregation}.
+     */
+    public AggregationResult aggregate(final Object searchObject, final Aggregation aggregation) {
+        final String name = "aggregation";
+        return aggregate(searchObject, Collections.singletonMap(name, aggregation)).get(name);
+    }
 
-                final BulkResponse bulkResponse = this.elasticSearchClient.bulk(bulkUpdateRequest);
+    /**
+     * Run the given aggregations over the objects similar to the given object, in a single search which doesn't
+     * fetch any hit.
+     *
+     * @return the results of the aggregations by their names.
+     */
+    public Map<String, AggregationResult> aggregate(final Object searchObject,
+                                                    final Map<String, Aggregation> aggregations) {
+        return aggregate(searchObject, aggregations, SearchOptions.defaultOptions());
+    }
 
-                final Map<String, BulkItemResponse> bulkIndexResponse = new HashMap<>();
-                for (BulkItemResponse bulkItemResponse : bulkResponse.getItems()) {
-                    bulkIndexResponse.put(bulkItemResponse.getId(), bulkItemResponse);
-                }
+    /**
+     * Like {@link #aggregate(Object, Map)}, with the given search options.
+     */
+    public Map<String, AggregationResult> aggregate(final Object searchObject,
+                                                    final Map<String, Aggregation> aggregations,
+                                                    final SearchOptions searchOptions) {
+        Preconditions.checkArgument(!aggregations.isEmpty(), "aggregations are empty");
 
-                this.bulkResult = bulkIndexResponse;
-            }
-        } catch (final Exception e) {
-            log.error(e);
-        } finally {
-            try {
-                idToItemMap.clear();
-            } catch (final Exception e) {
-                log.error(e);
-            }
+        // The attributes are nested documents, so they are aggregated inside a nested aggregation.
+        final NestedAggregationBuilder nestedAggregationBuilder =
+                AggregationBuilders.nested(AttributesMap.NAMESPACE_MAP, AttributesMap.NAMESPACE_MAP);
+        aggregations.forEach((name, aggregation) ->
+                nestedAggregationBuilder.subAggregation(aggregation.toAggregationBuilder(name)));
 
-            lock.unlock();
+        try {
+            final String queryDsl = new SearchSourceBuilder()
+                    .query(toSearchableAttributesMapsList(Lists.newArrayList(searchObject))
+                            .toQueryBuilder(toQueryMode(searchOptions)))
+                    .size(0)
+                    .aggregation(nestedAggregationBuilder)
+                    .toString();
+            final Response response = performJsonRequest(HttpMethod.POST, "/" + INDEX_NAME + "/" + SEARCH_PATH,
+                    Collections.emptyMap(), queryDsl);
 
-            if (indexingIsDone.getCount() > 0) {
-                indexingIsDone.countDown();
+            if (Objects.isNull(response.getEntity())) {
+                return Collections.emptyMap();
             }
 
-            indexingIsDone = new CountDownLatch(1);
+            try (InputStream content = response.getEntity().getContent()) {
+                return this.searchResponseDecoder.decodeAggregations(content, AttributesMap.NAMESPACE_MAP);
+            }
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
         }
     }
 
     /**
-     * Visable for testing.
+     * Search for all the objects similar to the given object, and translate the results to the given class type.
+     * The results are fetched lazily in pages of 1000 - the stream should be closed if it isn't fully consumed.
      */
-    protected int getMinMillisBetweenCalls() {
-        return MIN_MILLIS_BETWEEN_CALLS;
+    public <T> Stream<T> searchStream(final T searchObject, final Class<T> tClass) {
+        return searchStream(searchObject, tClass, DEFAULT_SEARCH_PAGE_SIZE);
     }
 
-    private List<AttributesMap> buildIdToAttributesMap(final String responseEntity) throws IOException {
-        if (responseEntity == null || responseEntity == "") {
-            return Lists.newArrayList();
-        }
-
-        final JsonNode rootNode = objectMapper.readTree(responseEntity);
-        final JsonNode jsonNodeHits =  rootNode.path(HITS);
-        if (jsonNodeHits.isMissingNode()) {
-            log.error("jsonNodeHits is required to process response");
-            throw new InvalidDataException("hits node is missing from search results");
-        }
-        final JsonNode jsonNodeHitsArray = jsonNodeHits.path(HITS);
-        if (jsonNodeHitsArray.isMissingNode()) {
-            log.error("jsonNodeHitsArray is required to process response");
-            throw new InvalidDataException("hits array node is missing from search results");
-        }
-        final Iterator<JsonNode> hitsIterator = jsonNodeHitsArray.elements();
-        final ArrayList<AttributesMap> attributesMapsList = Lists.newArrayList();
-
-        while (hitsIterator.hasNext()) {
-            final JsonNode hitsElement = hitsIterator.next();
-            final JsonNode sourceNode = hitsElement.get(SOURCE);
-            final AttributesMap attributesMap =
-                    this.objectMapper.readValue(sourceNode.toString(), AttributesMap.class);
-            attributesMapsList.add(attributesMap);
-        }
-        return attributesMapsList;
+    /**
+     * Search for all the objects similar to the given object, and translate the results to the given class type.
+     *
+     * The results are scrolled through lazily, a page at a time, while the next page is fetched in the background.
+     * The scroll is released once the stream is consumed or closed - a stream which isn't fully consumed should be
+     * closed.
+     */
+    public <T> Stream<T> searchStream(final T searchObject, final Class<T> tClass, final int pageSize) {
+        return searchStream(searchObject, tClass, pageSize, SearchOptions.defaultOptions());
     }
 
-    private void addItemToMap(final String id, final Object item) throws JsonProcessingException {
-        final String serializedItem = serializedItem(item);
-
+    /**
+     * Like {@link #searchStream(Object, Class, int)}, with the given search options. The stream is sorted by the
+     * sorts of the options, and its size is limited by {@link Stream#limit(long)} rather than by the options.
+     */
+    public <T> Stream<T> searchStream(final T searchObject, final Class<T> tClass, final int pageSize,
+                                      final SearchOptions searchOptions) {
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be positive");
+
+        final List<String> sourceIncludes = toSourceIncludes(searchOptions, tClass);
+        final String queryDsl;
         try {
-            this.lock.lock();
-            if (this.idToItemMap.containsKey(id)) {
-                throw new SameItemIndexCollisionException(id);
+            final SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                    .query(toSearchableAttributesMapsList(Lists.newArrayList(searchObject))
+                            .toQueryBuilder(toQueryMode(searchOptions)))
+                    .fetchSource(sourceIncludes.toArray(new String[0]), null)
+                    .size(pageSize);
+
+            // Without sorts the hits are scrolled in index order, which is the cheapest order.
+            if (searchOptions.getSorts().isEmpty()) {
+                searchSourceBuilder.sort(FieldSortBuilder.DOC_FIELD_NAME);
+            } else {
+                searchOptions.getSorts().forEach(sort -> searchSourceBuilder.sort(sort.toSortBuilder()));
             }
 
-            this.idToItemMap.put(id, serializedItem);
-        } catch (Exception e) {
-            log.error(e);
+            queryDsl = searchSourceBuilder.toString();
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
+
+        final SearchHitsIterator<T> iterator = new SearchHitsIterator<>(new SearchHitsIterator.ScrollClient<T>() {
+            @Override
+            public SearchPage<T> search() throws IOException {
+                final String queryPath = "/" + INDEX_NAME + "/" + SEARCH_PATH;
+                return decodeScrollPage(performJsonRequest(HttpMethod.POST, queryPath,
+                        Collections.singletonMap("scroll", SCROLL_KEEP_ALIVE), queryDsl), tClass);
+            }
+
+            @Override
+            public SearchPage<T> scroll(final String scrollId) throws IOException {
+                final String body = objectMapper.writeValueAsString(
+                        ImmutableMap.of("scroll", SCROLL_KEEP_ALIVE, "scroll_id", scrollId));
+                return decodeScrollPage(performJsonRequest(HttpMethod.POST, SCROLL_PATH,
+                        Collections.emptyMap(), body), tClass);
+            }
+
+            @Override
+            public void clearScroll(final String scrollId) throws IOException {
+                final String body = objectMapper.writeValueAsString(
+                        ImmutableMap.of("scroll_id", Collections.singletonList(scrollId)));
+                performJsonRequest(HttpMethod.DELETE, SCROLL_PATH, Collections.emptyMap(), body);
+            }
+        }, pageSize, this.searchExecutor);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
+
+    private <T> SearchPage<T> decodeScrollPage(final Response response, final Class<T> tClass) throws IOException {
+        if (Objects.isNull(response.getEntity())) {
+            return new SearchPage<>(null, Collections.emptyList());
+        }
+
+        try (InputStream content = response.getEntity().getContent()) {
+            return this.searchResponseDecoder.decodePage(content, tClass);
+        }
+    }
+
+    private Response performJsonRequest(final String method, final String path, final Map<String, String> params,
+                                        final String body) throws IOException {
+        final HttpEntity entity = new NStringEntity(body, ContentType.APPLICATION_JSON);
+        final Response response = this.elasticLowLevelClient.performRequest(method, path, params, entity);
+
+        if (response.getStatusLine().getStatusCode() != Status.OK.getStatusCode()) {
+            throw new InternalServiceException("internal failure");
+        }
+
+        return response;
+    }
+
+    private static SearchableAttributesMapsList toSearchableAttributesMapsList(final List<Object> searchObjectsList)
+            throws IOException {
+        final List<List<Object>> searchObjectsLists =
+                searchObjectsList.stream().map(entity -> Lists.newArrayList(entity))
+                        .collect(Collectors.toList());
+        final AttributesMapsList attributesMapsList =
+                AttributesMapsList.toAttributesMapsList(searchObjectsLists);
+        return new SearchableAttributesMapsList(attributesMapsList);
+    }
+
+    /**
+     * Search for objects similar to at least one of the given objects, and decode the hits of the response.
+     *
+     * @param resultType the type the hits are decoded to - identical searches are coalesced only if their hits
+     *                   are decoded the same way.
+     */
+    private <R> List<R> searchHits(final List<Object> searchObjectsList, final SearchOptions searchOptions,
+                                   final List<String> sourceIncludes, final Class<?> resultType,
+                                   final HitsDecoder<R> hitsDecoder) {
+        try {
+            return searchHits(toQueryDsl(toSearchableAttributesMapsList(searchObjectsList), searchOptions,
+                    sourceIncludes), searchOptions, resultType, hitsDecoder);
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
+    }
+
+    private <R> List<R> searchHits(final String queryDsl, final SearchOptions searchOptions,
+                                   final Class<?> resultType, final HitsDecoder<R> hitsDecoder) {
+        // Searches which are batched, coalesced, hedged or have a deadline are completed by the async path.
+        if (this.multiSearchBatcher != null || this.inFlightSearches != null || this.searchHedger != null
+                || searchOptions.getTimeoutMillis() != null) {
+            try {
+                return searchHitsAsync(queryDsl, searchOptions, resultType, hitsDecoder).join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new InternalServiceException(e.getCause());
+            }
+        }
+
+        try {
+            final Response response = search(queryDsl);
+            return decodeHits(response, hitsDecoder);
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
+    }
+
+    /**
+     * Async version of {@link #searchForSingleObject(Object, Class)} - the response is decoded on the search
+     * executor.
+     */
+    public <T> CompletableFuture<List<T>> searchForSingleObjectAsync(final T searchObject, final Class<T> tClass) {
+        return searchForSingleObjectAsync(searchObject, tClass, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForSingleObjectAsync(Object, Class)}, with the given search options.
+     */
+    public <T> CompletableFuture<List<T>> searchForSingleObjectAsync(final T searchObject, final Class<T> tClass,
+                                                                    final SearchOptions searchOptions) {
+        final List<Object> searchObjectsList = Lists.newArrayList(searchObject);
+        return searchHitsAsync(searchObjectsList, searchOptions, toSourceIncludes(searchOptions, tClass), tClass,
+                parser -> this.searchResponseDecoder.decode(parser, tClass));
+    }
+
+    /**
+     * Async version of {@link #searchForMultipleObjects(List, Class)} - the response is decoded on the search
+     * executor.
+     */
+    public <T> CompletableFuture<List<T>> searchForMultipleObjectsAsync(final List<T> searchList,
+                                                                       final Class<T> tClass) {
+        return searchForMultipleObjectsAsync(searchList, tClass, SearchOptions.defaultOptions());
+    }
+
+    /**
+     * Like {@link #searchForMultipleObjectsAsync(List, Class)}, with the given search options.
+     */
+    public <T> CompletableFuture<List<T>> searchForMultipleObjectsAsync(final List<T> searchList,
+                                                                       final Class<T> tClass,
+                                                                       final SearchOptions searchOptions) {
+        final List<Object> searchObjectsList = Lists.newArrayList(searchList);
+        return searchHitsAsync(searchObjectsList, searchOptions, toSourceIncludes(searchOptions, tClass), tClass,
+                parser -> this.searchResponseDecoder.decode(parser, tClass));
+    }
+
+    private <R> CompletableFuture<List<R>> searchHitsAsync(final List<Object> searchObjectsList,
+                                                          final SearchOptions searchOptions,
+                                                          final List<String> sourceIncludes,
+                                                          final Class<?> resultType,
+                                                          final HitsDecoder<R> hitsDecoder) {
+        final String queryDsl;
+        try {
+            queryDsl = toQueryDsl(toSearchableAttributesMapsList(searchObjectsList), searchOptions, sourceIncludes);
+        } catch (IOException e) {
+            return failedFuture(new InternalServiceException(e));
+        }
+
+        return searchHitsAsync(queryDsl, searchOptions, resultType, hitsDecoder);
+    }
+
+    private <R> CompletableFuture<List<R>> searchHitsAsync(final String queryDsl, final SearchOptions searchOptions,
+                                                          final Class<?> resultType,
+                                                          final HitsDecoder<R> hitsDecoder) {
+        if (this.inFlightSearches == null) {
+            return sendSearch(queryDsl, searchOptions, hitsDecoder);
+        }
+
+        // The decoded hits are shared by all the coalesced searches, every caller gets its own list of them.
+        // The deadline is part of the DSL, so only searches with the same deadline are coalesced.
+        return this.inFlightSearches.search(Arrays.asList(queryDsl, resultType),
+                () -> sendSearch(queryDsl, searchOptions, hitsDecoder),
+                hits -> hits == null ? null : new ArrayList<R>(hits));
+    }
+
+    private <R> CompletableFuture<List<R>> sendSearch(final String queryDsl, final SearchOptions searchOptions,
+                                                     final HitsDecoder<R> hitsDecoder) {
+        if (this.multiSearchBatcher != null) {
+            // The batcher already completes the searches on the search executor.
+            return withDeadline(this.multiSearchBatcher.search(queryDsl).thenApply(singleResponse -> {
+                try (JsonParser parser = singleResponse.asParser()) {
+                    return hitsDecoder.decode(parser);
+                } catch (IOException e) {
+                    throw new InternalServiceException(e);
+                }
+            }), searchOptions.getTimeoutMillis());
+        }
+
+        final CompletableFuture<Response> response = this.searchHedger != null
+                ? this.searchHedger.send(() -> searchAsync(queryDsl))
+                : searchAsync(queryDsl);
+        final CompletableFuture<List<R>> hits = response.thenApplyAsync(responseToDecode -> {
+            try {
+                return decodeHits(responseToDecode, hitsDecoder);
+            } catch (IOException e) {
+                throw new InternalServiceException(e);
+            }
+        }, this.searchExecutor);
+
+        // A search which was cancelled or passed its deadline doesn't decode its response, and isn't hedged.
+        // The request itself can't be aborted - the async requests of the rest client aren't cancellable.
+        hits.whenComplete((value, e) -> response.cancel(false));
+
+        return withDeadline(hits, searchOptions.getTimeoutMillis());
+    }
+
+    /**
+     * Fails the given future once the deadline passed, so its callers don't wait for a straggler.
+     */
+    private <R> CompletableFuture<R> withDeadline(final CompletableFuture<R> result, final Long timeoutMillis) {
+        if (timeoutMillis == null) {
+            return result;
+        }
+
+        try {
+            final ScheduledFuture<?> deadline = this.searchTimer.schedule(() -> result.completeExceptionally(
+                    new InternalServiceException(new TimeoutException(
+                            "search didn't complete within " + timeoutMillis + " millis"))),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, e) -> deadline.cancel(false));
+        } catch (final RejectedExecutionException e) {
+            // The proxy is closed - the search completes without a deadline.
+        }
+
+        return result;
+    }
+
+    /**
+     * The body of a search with only the query of the given options - for requests which don't fetch hits.
+     */
+    private String toQueryOnlyDsl(final SearchableAttributesMapsList searchableAttributesMapsList,
+                                  final SearchOptions searchOptions) {
+        return searchableAttributesMapsList.toDslQueryString(toQueryMode(searchOptions));
+    }
+
+    /**
+     * @param sourceIncludes the {@code _source} fields to fetch, empty to fetch the whole {@code _source}.
+     */
+    private String toQueryDsl(final SearchableAttributesMapsList searchableAttributesMapsList,
+                              final SearchOptions searchOptions,
+                              final List<String> sourceIncludes) throws IOException {
+        final String queryDsl = toQueryOnlyDsl(searchableAttributesMapsList, searchOptions);
+        final Map<String, Object> bodyFields = new LinkedHashMap<>();
+
+        if (!sourceIncludes.isEmpty()) {
+            bodyFields.put(SOURCE, ImmutableMap.of(INCLUDES, sourceIncludes));
+        }
+        if (searchOptions.getSize() != null) {
+            bodyFields.put(SIZE, searchOptions.getSize());
+        }
+        if (searchOptions.getTimeoutMillis() != null) {
+            bodyFields.put(TIMEOUT, searchOptions.getTimeoutMillis() + "ms");
+        }
+        if (!searchOptions.getSorts().isEmpty()) {
+            bodyFields.put(SORT, searchOptions.getSorts().stream()
+                    .map(AttributeSort::toSortField)
+                    .collect(Collectors.toList()));
+        }
+
+        return SearchBody.withFields(this.objectMapper, queryDsl, bodyFields);
+    }
+
+    /**
+     * Objects of a class are decoded only from the namespace of the class, so only it is fetched - unless the
+     * search fetches other fields explicitly.
+     */
+    private static List<String> toSourceIncludes(final SearchOptions searchOptions, final Class<?> tClass) {
+        if (!searchOptions.getSourceIncludes().isEmpty()) {
+            return searchOptions.getSourceIncludes();
+        }
+
+        return Collections.singletonList(toNamespacePath(tClass));
+    }
+
+    private static String toNamespacePath(final Class<?> tClass) {
+        return AttributesMap.NAMESPACE_MAP + "." + tClass.getSimpleName();
+    }
+
+    private QueryMode toQueryMode(final SearchOptions searchOptions) {
+        return searchOptions.getQueryMode() != null ? searchOptions.getQueryMode() : this.searchConfig.getQueryMode();
+    }
+
+    private <R> List<R> decodeHits(final Response response, final HitsDecoder<R> hitsDecoder) throws IOException {
+        if (response.getStatusLine().getStatusCode() != Status.OK.getStatusCode()) {
+            throw new InternalServiceException("internal failure");
+        }
+
+        if (Objects.isNull(response.getEntity())) {
+            return null;
+        }
+
+        try (InputStream content = response.getEntity().getContent();
+             JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            return hitsDecoder.decode(parser);
+        }
+    }
+
+    public Response search(final String queryDsl) {
+        try {
+            final String queryPath = new StringBuilder().append("/").append(INDEX_NAME).append("/").append(SEARCH_PATH)
+                    .toString();
+            final HttpEntity entity = new NStringEntity(queryDsl, ContentType.APPLICATION_JSON);
+            final Map<String, String> params = Maps.newHashMap();
+            final Header[] headers = new Header[0];
+            final String method = HttpMethod.GET;
+            final Response response =
+                    this.elasticLowLevelClient.performRequest(method, queryPath, params, entity, headers);
+
+            return response;
+        } catch (IOException e) {
+            throw new InternalServiceException(e);
+        }
+    }
+
+    /**
+     * Async version of {@link #search(String)} - no thread waits for the response, the returned future completes
+     * on the HTTP client's I/O thread.
+     */
+    public CompletableFuture<Response> searchAsync(final String queryDsl) {
+        final String queryPath = "/" + INDEX_NAME + "/" + SEARCH_PATH;
+        final HttpEntity entity = new NStringEntity(queryDsl, ContentType.APPLICATION_JSON);
+        final Header[] headers = new Header[0];
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        this.elasticLowLevelClient.performRequestAsync(HttpMethod.GET, queryPath, Maps.newHashMap(), entity,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(final Response response) {
+                        result.complete(response);
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        result.completeExceptionally(new InternalServiceException(e));
+                    }
+                }, headers);
+
+        return result;
+    }
+
+    /**
+     * Index the given item and wait for the result of the bulk which contains it.
+     */
+    public void writeItem(final String id, final Object item) throws IndexingException,
+            IOException {
+        try {
+            writeItemAsync(id, item).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof IndexingException) {
+                throw (IndexingException) e.getCause();
+            }
+
+            throw new IndexingException(e);
+        }
+    }
+
+    /**
+     * Queue the given item for indexing.
+     *
+     * @return a future which completes with the item's {@link BulkItemResponse} once its bulk is done,
+     * or exceptionally with an {@link IndexingException} if the item failed to be indexed.
+     */
+    public CompletableFuture<BulkItemResponse> writeItemAsync(final String id, final Object item) {
+        return queueItem(id, item, null);
+    }
+
+    /**
+     * Journal the given item and queue it for indexing.
+     *
+     * @return a future which completes once the write is durable in the journal - the write is indexed even if
+     * the proxy is restarted before its bulk is sent.
+     * @throws IllegalStateException if writes aren't journaled.
+     */
+    public CompletableFuture<Void> writeItemDurableAsync(final String id, final Object item) {
+        Preconditions.checkState(this.journal != null, "No journal directory is configured");
+
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        queueItem(id, item, durable);
+        return durable;
+    }
+
+    /**
+     * @param durable if not null, completed once the item is durable in the journal, or exceptionally if the item
+     *                wasn't journaled.
+     */
+    private CompletableFuture<BulkItemResponse> queueItem(final String id, final Object item,
+                                                          final CompletableFuture<Void> durable) {
+        this.activeWriters.incrementAndGet();
+        try {
+            if (this.closed.get()) {
+                return failedFuture(new IndexingException(new IllegalStateException("The proxy is closed")),
+                        durable);
+            }
+
+            return queueOpenItem(id, item, durable);
         } finally {
-            this.lock.unlock();
+            this.activeWriters.decrementAndGet();
+        }
+    }
+
+    private CompletableFuture<BulkItemResponse> queueOpenItem(final String id, final Object item,
+                                                              final CompletableFuture<Void> durable) {
+        final PendingItem pendingItem;
+        try {
+            final AttributesMap attributesMap = AttributesMap.toAttributesMap(item);
+            pendingItem = new PendingItem(id, attributesMap, serializedItem(attributesMap));
+        } catch (final IOException e) {
+            return failedFuture(new IndexingException(e), durable);
+        }
+
+        try {
+            acquireBufferCapacity(id);
+        } catch (final IndexingException e) {
+            return failedFuture(e, durable);
+        }
+
+        final JournalRecord record;
+        try {
+            record = this.journal != null ? this.journal.append(id, pendingItem.getSerializedItem()) : null;
+        } catch (final IOException e) {
+            this.bufferCapacity.release();
+            return failedFuture(new IndexingException(e), durable);
+        }
+
+        final PendingItem queuedItem;
+        try {
+            queuedItem = addItemToMap(pendingItem);
+        } catch (final IndexingException e) {
+            this.bufferCapacity.release();
+            // The write was never queued, so its record shouldn't be indexed when the journal is replayed.
+            if (record != null) {
+                this.journal.acknowledge(record);
+            }
+            return failedFuture(e, durable);
+        }
+
+        if (durable != null) {
+            record.getDurable().whenComplete((ignored, e) -> {
+                if (e != null) {
+                    durable.completeExceptionally(e);
+                } else {
+                    durable.complete(null);
+                }
+            });
+        }
+
+        if (this.searchResultCache != null) {
+            // Once when the write is queued, and again once it is indexed - searches until the next refresh may
+            // miss it.
+            final Set<String> namespaces = pendingItem.getAttributesMap().getNamespaceMap().keySet();
+            this.searchResultCache.invalidate(namespaces);
+            queuedItem.getResult().whenComplete((response, e) -> this.searchResultCache.invalidate(namespaces));
+        }
+
+        if (queuedItem != pendingItem) {
+            // The id was already pending - this write doesn't take any room in the buffer.
+            this.bufferCapacity.release();
+        } else {
+            pendingItem.getResult().whenComplete((response, e) -> this.bufferCapacity.release());
+        }
+
+        if (record != null) {
+            acknowledgeWhenIndexed(queuedItem.getResult(), record);
+        }
+
+        return queuedItem.getResult();
+    }
+
+    /**
+     * Acknowledges the journal record once ES responded for its item. Items which never got a response are left
+     * in the journal, so they are indexed again when the journal is replayed.
+     */
+    private void acknowledgeWhenIndexed(final CompletableFuture<BulkItemResponse> result, final JournalRecord record) {
+        result.whenComplete((response, e) -> {
+            if (e == null || (e instanceof IndexingException && ((IndexingException) e).getFailure() != null)) {
+                this.journal.acknowledge(record);
+            }
+        });
+    }
+
+    /**
+     * Takes room for one item in the buffer, applying the configured {@link BackpressurePolicy} when the buffer
+     * is full.
+     */
+    private void acquireBufferCapacity(final String id) {
+        try {
+            switch (this.config.getBackpressurePolicy()) {
+                case FAIL_FAST:
+                    if (!this.bufferCapacity.tryAcquire()) {
+                        throw new IndexingRejectedException(id);
+                    }
+                    break;
+                case TIMEOUT:
+                    if (!this.bufferCapacity.tryAcquire(this.config.getBackpressureTimeoutMillis(),
+                            TimeUnit.MILLISECONDS)) {
+                        throw new IndexingRejectedException(id);
+                    }
+                    break;
+                default:
+                    this.bufferCapacity.acquire();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexingException(e);
         }
     }
+
+    private BinaryOperator<PendingItem> createCoalescer(final CoalescingMode coalescingMode) {
+        switch (coalescingMode) {
+            case LAST_WRITER_WINS:
+                return (pendingItem, laterItem) ->
+                        pendingItem.withContent(laterItem.getAttributesMap(), laterItem.getSerializedItem());
+            case MERGE:
+                return (pendingItem, laterItem) -> {
+                    final AttributesMap mergedAttributesMap =
+                            pendingItem.getAttributesMap().merge(laterItem.getAttributesMap());
+                    try {
+                        return pendingItem.withContent(mergedAttributesMap, serializedItem(mergedAttributesMap));
+                    } catch (final JsonProcessingException e) {
+                        throw new IndexingException(e);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(final Exception e) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(final Exception e, final CompletableFuture<Void> durable) {
+        if (durable != null) {
+            durable.completeExceptionally(e);
+        }
+        return failedFuture(e);
+    }
+
+    @VisibleForTesting
+    protected BulkItemResponse getItemFromBulkResponse(final Map<String, BulkItemResponse> bulkResult,
+                                                       final String id) {
+        return bulkResult.get(id);
+    }
+
+    @VisibleForTesting
+    protected byte[] serializedItem(final Object item) throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(item);
+    }
+
+    /**
+     * Sends the pending items as bulks of up to {@link BulkProcessingConfig#getMaxActions()} actions and
+     * {@link BulkProcessingConfig#getMaxBytes()} bytes each. Every bulk waits first for an in flight bulk to be
+     * done if there are already too many of them - the pending items keep piling up in the meantime.
+     */
+    @VisibleForTesting
+    protected void indexDataToEs() throws InterruptedException {
+        this.inFlightBulks.acquire();
+
+        // Swap the buffers first - producers keep adding to the new buffer while this bulk is in progress.
+        final IngestionBuffer buffer = this.activeBuffer.getAndSet(new IngestionBuffer());
+        buffer.seal();
+
+        final List<PendingItem> pendingItems = takeSendableItems(buffer.getItems());
+        if (pendingItems.isEmpty()) {
+            this.inFlightBulks.release();
+            return;
+        }
+
+        final List<List<PendingItem>> batches =
+                splitToBatches(pendingItems, this.config.getMaxActions(), this.config.getMaxBytes());
+
+        for (int batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+            try {
+                if (batchIndex > 0) {
+                    this.inFlightBulks.acquire();
+                }
+            } catch (final InterruptedException e) {
+                for (final List<PendingItem> batch : batches.subList(batchIndex, batches.size())) {
+                    failBulkItems(batch, e);
+                }
+                throw e;
+            }
+
+            sendBulk(batches.get(batchIndex), 1);
+        }
+    }
+
+    /**
+     * Takes the items which can be sent now - the buffered items and the held back items whose ids aren't in
+     * flight anymore, at most one item per id. The other items are held back, after the held back items of
+     * their ids, and the taken items are in flight until they are done.
+     */
+    private List<PendingItem> takeSendableItems(final List<PendingItem> bufferedItems) {
+        this.heldItemsReleased = false;
+
+        for (final PendingItem bufferedItem : bufferedItems) {
+            this.heldItems.computeIfAbsent(bufferedItem.getId(), id -> new ArrayDeque<>()).addLast(bufferedItem);
+        }
+
+        final List<PendingItem> sendableItems = new ArrayList<>();
+        final Iterator<Map.Entry<String, Deque<PendingItem>>> iterator = this.heldItems.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Deque<PendingItem>> idToItems = iterator.next();
+            if (this.inFlightItems.containsKey(idToItems.getKey())) {
+                continue;
+            }
+
+            final PendingItem sendableItem = idToItems.getValue().pollFirst();
+            if (idToItems.getValue().isEmpty()) {
+                iterator.remove();
+            }
+
+            this.inFlightItems.put(sendableItem.getId(), sendableItem);
+            sendableItem.getResult().whenComplete((response, e) -> releaseHeldItems(sendableItem));
+            sendableItems.add(sendableItem);
+        }
+
+        this.hasHeldItems = !this.heldItems.isEmpty();
+
+        // An item which was done before the flag was set didn't see it, so its held back items are released here.
+        if (this.heldItems.keySet().stream().anyMatch(id -> !this.inFlightItems.containsKey(id))) {
+            this.heldItemsReleased = true;
+        }
+
+        return sendableItems;
+    }
+
+    private void releaseHeldItems(final PendingItem doneItem) {
+        this.inFlightItems.remove(doneItem.getId(), doneItem);
+
+        if (this.hasHeldItems) {
+            this.heldItemsReleased = true;
+            LockSupport.unpark(this.worker);
+        }
+    }
+
+    /**
+     * Splits the items into batches which don't exceed the given number of actions and size. An item which is
+     * bigger than the max size by itself is sent as a batch of its own.
+     */
+    @VisibleForTesting
+    static List<List<PendingItem>> splitToBatches(final List<PendingItem> pendingItems,
+                                                  final int maxActions,
+                                                  final long maxBytes) {
+        final List<List<PendingItem>> batches = new ArrayList<>();
+        List<PendingItem> batch = new ArrayList<>();
+        long batchBytes = 0;
+
+        for (final PendingItem pendingItem : pendingItems) {
+            final long itemBytes = pendingItem.getSizeInBytes();
+
+            if (!batch.isEmpty() && (batch.size() >= maxActions || batchBytes + itemBytes > maxBytes)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+
+            batch.add(pendingItem);
+            batchBytes += itemBytes;
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Sends a single bulk. The caller should hold an in flight permit, which is released once the bulk is done.
+     *
+     * @param attempt the (1 based) number of times these items were sent, including this time.
+     */
+    private void sendBulk(final List<PendingItem> bulkItems, final int attempt) {
+        // Every item is an upsert - more details about upsert at
+        // https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/
+        // java-rest-high-document-update.html
+        final BulkEncoder.BulkBuffer bulkBody;
+        try {
+            bulkBody = this.bulkEncoder.encode(bulkItems);
+        } catch (final Exception e) {
+            log.error(e);
+            failBulkItems(bulkItems, e);
+            this.inFlightBulks.release();
+            return;
+        }
+
+        try {
+            this.elasticSearchClient.bulkAsync(bulkBody.toEntity(), new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(final BulkResponse bulkResponse) {
+                    bulkEncoder.release(bulkBody);
+                    try {
+                        completeBulkItems(bulkItems, bulkResponse, attempt);
+                    } catch (final Exception e) {
+                        log.error(e);
+                        failBulkItems(bulkItems, e);
+                    } finally {
+                        inFlightBulks.release();
+                    }
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    log.error(e);
+                    bulkEncoder.release(bulkBody);
+                    try {
+                        if (retryPolicy.canRetry(attempt) && retryPolicy.isRetryable(e)) {
+                            scheduleRetry(bulkItems, attempt);
+                        } else {
+                            failBulkItems(bulkItems, e);
+                        }
+                    } finally {
+                        inFlightBulks.release();
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            log.error(e);
+            this.bulkEncoder.release(bulkBody);
+            failBulkItems(bulkItems, e);
+            this.inFlightBulks.release();
+        }
+    }
+
+    /**
+     * Completes the items from the bulk response. Items which failed with a retryable status are retried instead.
+     */
+    private void completeBulkItems(final List<PendingItem> bulkItems,
+                                   final BulkResponse bulkResponse,
+                                   final int attempt) {
+        final Map<String, BulkItemResponse> bulkResult = new HashMap<>();
+        for (BulkItemResponse bulkItemResponse : bulkResponse.getItems()) {
+            bulkResult.put(bulkItemResponse.getId(), bulkItemResponse);
+        }
+
+        final List<PendingItem> retryItems = new ArrayList<>();
+        for (final PendingItem pendingItem : bulkItems) {
+            final BulkItemResponse bulkItemResponse = getItemFromBulkResponse(bulkResult, pendingItem.getId());
+
+            if (bulkItemResponse != null && bulkItemResponse.isFailed() && this.retryPolicy.canRetry(attempt)
+                    && this.retryPolicy.isRetryable(bulkItemResponse.getFailure().getStatus())) {
+                retryItems.add(pendingItem);
+                continue;
+            }
+
+            pendingItem.complete(INDEX_NAME, bulkItemResponse);
+        }
+
+        if (!retryItems.isEmpty()) {
+            scheduleRetry(retryItems, attempt);
+        }
+    }
+
+    /**
+     * Sends the items again as a bulk of their own once the backoff of the given attempt is over.
+     */
+    private void scheduleRetry(final List<PendingItem> retryItems, final int attempt) {
+        final long backoffMillis = this.retryPolicy.getBackoffMillis(attempt);
+        log.warn(String.format("Retrying %d items in %d millis, attempt %d failed", retryItems.size(),
+                backoffMillis, attempt));
+
+        try {
+            this.retryScheduler.schedule(() -> retryBulk(retryItems, attempt + 1), backoffMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            failBulkItems(retryItems, e);
+        }
+    }
+
+    private void retryBulk(final List<PendingItem> retryItems, final int attempt) {
+        try {
+            this.inFlightBulks.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failBulkItems(retryItems, e);
+            return;
+        }
+
+        sendBulk(retryItems, attempt);
+    }
+
+    private void failBulkItems(final List<PendingItem> bulkItems, final Exception e) {
+        for (final PendingItem pendingItem : bulkItems) {
+            pendingItem.fail(e);
+        }
+    }
+
+    /**
+     * Visable for testing.
+     */
+    protected long getMaxLingerMillis() {
+        return this.config.getMaxLingerMillis();
+    }
+
+    /**
+     * Blocks until one of the flush triggers fires or the proxy is stopped.
+     * An idle proxy parks without waking up until the first item is queued.
+     *
+     * @return true if there are pending items to flush.
+     */
+    private boolean awaitFlushTrigger() {
+        while (!stop) {
+            // Held back writes already waited for the writes before them, so they are flushed right away.
+            if (this.heldItemsReleased) {
+                return true;
+            }
+
+            final IngestionBuffer buffer = this.activeBuffer.get();
+
+            if (buffer.isEmpty()) {
+                // Announce the worker is idle before re-checking, so a producer that adds the first item either
+                // sees the flag and wakes us up, or its item is seen here.
+                workerIdle = true;
+                if (buffer.isEmpty() && !this.heldItemsReleased) {
+                    LockSupport.park(this);
+                }
+                workerIdle = false;
+                continue;
+            }
+
+            if (isBufferFull(buffer)) {
+                return true;
+            }
+
+            final long lingerNanos = TimeUnit.MILLISECONDS.toNanos(getMaxLingerMillis());
+            final long remainingNanos = lingerNanos - (System.nanoTime() - buffer.getOldestItemNanos());
+            if (remainingNanos <= 0) {
+                return true;
+            }
+
+            LockSupport.parkNanos(this, remainingNanos);
+        }
+
+        return false;
+    }
+
+    private boolean isBufferFull(final IngestionBuffer buffer) {
+        return buffer.size() >= this.config.getMaxActions() || buffer.bytes() >= this.config.getMaxBytes();
+    }
+
+    /**
+     * Queues the item for the next bulk without blocking.
+     *
+     * @return the pending item which holds the future of the item's indexing result. If the same id is already
+     * pending then the already pending item (or the item it was coalesced into) is returned.
+     */
+    private PendingItem addItemToMap(final PendingItem pendingItem) {
+        while (true) {
+            final IngestionBuffer buffer = this.activeBuffer.get();
+            final PendingItem bufferedItem = buffer.add(pendingItem, this.coalescer);
+
+            // The buffer was swapped by a flush while we were adding - try again with the new buffer, unless the
+            // worker is done and no buffer is flushed anymore.
+            if (bufferedItem == null) {
+                if (this.workerDone) {
+                    throw new IndexingException(new IllegalStateException("The proxy is closed"));
+                }
+                continue;
+            }
+
+            if (bufferedItem != pendingItem) {
+                if (this.coalescer == null) {
+                    log.error(new SameItemIndexCollisionException(pendingItem.getId()));
+                }
+                return bufferedItem;
+            }
+
+            // Wake the worker up to start the linger timer, or to flush a full buffer right away.
+            if (workerIdle || isBufferFull(buffer)) {
+                LockSupport.unpark(this.worker);
+            }
+
+            return pendingItem;
+        }
+    }
+
+    /**
+     * Decodes the hits of a search response from a parser which is before the start of the response.
+     */
+    @FunctionalInterface
+    private interface HitsDecoder<R> {
+        List<R> decode(JsonParser parser) throws IOException;
+    }
 }
@@ -0,0 +1,90 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A policy for hedging slow searches - once a search takes longer than a percentile of the recent search
+ * latencies, the same search is sent again, and whichever response arrives first is taken.
+ *
+ * The rest client sends every request to the next node, so the hedge goes to another node than the original
+ * search, and a single slow node or shard doesn't hold the search. Hedging starts once enough latencies were
+ * recorded, and a search is hedged at most once.
+ */
+public class HedgingPolicy {
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 5;
+    public static final int DEFAULT_SAMPLE_SIZE = 200;
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final int sampleSize;
+
+    private HedgingPolicy(final Builder builder) {
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.sampleSize = builder.sampleSize;
+    }
+
+    public static HedgingPolicy defaultPolicy() {
+        return createBuilder().build();
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The percentile of the recent latencies after which a search is hedged.
+     */
+    public double getPercentile() {
+        return this.percentile;
+    }
+
+    /**
+     * The min delay of a hedge, so searches aren't doubled when all the searches are fast.
+     */
+    public long getMinDelayMillis() {
+        return this.minDelayMillis;
+    }
+
+    /**
+     * The number of recent latencies the percentile is taken from. Searches aren't hedged until that many
+     * latencies were recorded.
+     */
+    public int getSampleSize() {
+        return this.sampleSize;
+    }
+
+    /**
+     * A builder for {@link HedgingPolicy}.
+     */
+    public static class Builder {
+        private double percentile = DEFAULT_PERCENTILE;
+        private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+        private Builder() {}
+
+        public Builder withPercentile(final double percentile) {
+            Preconditions.checkArgument(percentile > 0 && percentile < 1, "percentile must be between 0 and 1");
+            this.percentile = percentile;
+            return this;
+        }
+
+        public Builder withMinDelayMillis(final long minDelayMillis) {
+            Preconditions.checkArgument(minDelayMillis >= 0, "minDelayMillis can't be negative");
+            this.minDelayMillis = minDelayMillis;
+            return this;
+        }
+
+        public Builder withSampleSize(final int sampleSize) {
+            Preconditions.checkArgument(sampleSize > 0, "sampleSize must be positive");
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package es.oo.endpoint;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces identical searches which are in flight at the same time - the first search of a key is sent, and the
+ * searches of the same key which start before it completes share its result instead of being sent again.
+ *
+ * Every caller gets its own future. Cancelling it leaves the shared search to the other callers, and once all the
+ * callers cancelled, the sent search is cancelled as well and the next search of the key is sent again.
+ *
+ * Unlike the {@link SearchResultCache}, nothing is kept once a search completes, so a result is never staler than
+ * the search it was shared with.
+ */
+class InFlightSearches {
+    private final ConcurrentMap<Object, SharedSearch<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param key identifies the search and the type of its result - searches of the same key must have results
+     *            of the same type.
+     * @param search sends the search, called only if no search of the key is in flight.
+     * @param copy gives every caller its own copy of the shared result.
+     * @return a future which completes with the result of the search in flight.
+     */
+    @SuppressWarnings("unchecked")
+    <R> CompletableFuture<R> search(final Object key, final Supplier<CompletableFuture<R>> search,
+                                    final UnaryOperator<R> copy) {
+        while (true) {
+            final SharedSearch<R> sharedSearch = new SharedSearch<>();
+            final SharedSearch<R> inFlightSearch = (SharedSearch<R>) this.inFlight.putIfAbsent(key, sharedSearch);
+            if (inFlightSearch == null) {
+                final CompletableFuture<R> result = sharedSearch.join(copy);
+                send(key, sharedSearch, search);
+                return result;
+            }
+
+            final CompletableFuture<R> result = inFlightSearch.join(copy);
+            if (result != null) {
+                return result;
+            }
+
+            // All the callers of the search in flight cancelled it - it is replaced by a new one.
+            this.inFlight.remove(key, inFlightSearch);
+        }
+    }
+
+    private <R> void send(final Object key, final SharedSearch<R> sharedSearch,
+                          final Supplier<CompletableFuture<R>> search) {
+        final CompletableFuture<R> sent;
+        try {
+            sent = search.get();
+        } catch (final RuntimeException e) {
+            this.inFlight.remove(key, sharedSearch);
+            sharedSearch.result.completeExceptionally(e);
+            return;
+        }
+
+        // The key is removed before the result completes, so searches which start after it are sent again.
+        sent.whenComplete((value, e) -> {
+            this.inFlight.remove(key, sharedSearch);
+
+            if (e != null) {
+                sharedSearch.result.completeExceptionally(e);
+            } else {
+                sharedSearch.result.complete(value);
+            }
+        });
+
+        sharedSearch.result.whenComplete((value, e) -> {
+            if (sharedSearch.result.isCancelled()) {
+                this.inFlight.remove(key, sharedSearch);
+                sent.cancel(false);
+            }
+        });
+    }
+
+    int size() {
+        return this.inFlight.size();
+    }
+
+    private static class SharedSearch<R> {
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        /**
+         * The callers which are still waiting for the result, guarded by this.
+         */
+        private int callers = 0;
+
+        /**
+         * @return the future of a new caller of the search, null if all its callers cancelled it.
+         */
+        private CompletableFuture<R> join(final UnaryOperator<R> copy) {
+            synchronized (this) {
+                if (this.result.isCancelled()) {
+                    return null;
+                }
+                this.callers++;
+            }
+
+            final CompletableFuture<R> callerResult = new CompletableFuture<>();
+            this.result.whenComplete((value, e) -> {
+                if (e != null) {
+                    callerResult.completeExceptionally(e);
+                } else {
+                    callerResult.complete(copy.apply(value));
+                }
+            });
+            callerResult.whenComplete((value, e) -> {
+                if (callerResult.isCancelled()) {
+                    leave();
+                }
+            });
+
+            return callerResult;
+        }
+
+        private void leave() {
+            // Cancelled under the lock, so a caller can't join the search once it is about to be cancelled.
+            synchronized (this) {
+                if (--this.callers == 0) {
+                    this.result.cancel(false);
+                }
+            }
+        }
+    }
+}
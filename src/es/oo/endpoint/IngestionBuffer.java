@@ -0,0 +1,121 @@
+package es.oo.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * A buffer of items which are waiting for the next bulk.
+ *
+ * Producers add items without taking any lock. The flushing thread swaps the buffer with a new one and then
+ * {@link #seal()}s the old one - sealing waits only for the producers which are in the middle of an add, so
+ * once it returns the buffer content is final and can be sent to elastic search.
+ */
+class IngestionBuffer {
+    private final ConcurrentMap<String, PendingItem> idToItemMap = new ConcurrentHashMap<>();
+    private final AtomicInteger activeProducers = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong oldestItemNanos = new AtomicLong();
+
+    private volatile boolean sealed = false;
+
+    /**
+     * Adds the item to the buffer.
+     *
+     * @return the given item if it was added, the already buffered item if an item with the same id is already
+     * buffered, or null if the buffer is sealed and the item should be added to the next buffer.
+     */
+    PendingItem add(final PendingItem pendingItem) {
+        return add(pendingItem, null);
+    }
+
+    /**
+     * Adds the item to the buffer. If an item with the same id is already buffered and a coalescer is given, the
+     * two items are replaced by the coalesced item.
+     *
+     * @return the given item if it was added, the coalesced item (or the already buffered item if there is no
+     * coalescer) if an item with the same id is already buffered, or null if the buffer is sealed and the item
+     * should be added to the next buffer.
+     */
+    PendingItem add(final PendingItem pendingItem, final BinaryOperator<PendingItem> coalescer) {
+        activeProducers.incrementAndGet();
+
+        try {
+            if (sealed) {
+                return null;
+            }
+
+            if (oldestItemNanos.get() == 0) {
+                oldestItemNanos.compareAndSet(0, System.nanoTime());
+            }
+
+            if (coalescer != null) {
+                return idToItemMap.compute(pendingItem.getId(), (id, bufferedItem) -> {
+                    if (bufferedItem == null) {
+                        bytes.addAndGet(pendingItem.getSizeInBytes());
+                        size.incrementAndGet();
+                        return pendingItem;
+                    }
+
+                    final PendingItem coalescedItem = coalescer.apply(bufferedItem, pendingItem);
+                    bytes.addAndGet(coalescedItem.getSizeInBytes() - bufferedItem.getSizeInBytes());
+                    return coalescedItem;
+                });
+            }
+
+            final PendingItem bufferedItem = idToItemMap.putIfAbsent(pendingItem.getId(), pendingItem);
+            if (bufferedItem != null) {
+                return bufferedItem;
+            }
+
+            bytes.addAndGet(pendingItem.getSizeInBytes());
+            size.incrementAndGet();
+
+            return pendingItem;
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Seals the buffer - from now on adds are rejected. Returns once all the in progress adds are done.
+     */
+    void seal() {
+        sealed = true;
+
+        while (activeProducers.get() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The buffered items. Should be called only after the buffer is sealed.
+     */
+    List<PendingItem> getItems() {
+        return new ArrayList<>(idToItemMap.values());
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * The time (in {@link System#nanoTime()} terms) the first item was added to the buffer.
+     */
+    long getOldestItemNanos() {
+        return oldestItemNanos.get();
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,277 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import es.oo.exceptions.InternalServiceException;
+import es.oo.exceptions.InvalidDataException;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.Response.Status;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gathers concurrent searches into a single {@code _msearch} request.
+ *
+ * A batch is sent once it has the max number of searches, or once its first search waited for the linger time.
+ * The {@code _msearch} response is split back into the responses of the single searches in a single pass - each
+ * response is buffered as tokens, so it is decoded without being parsed again, and completes its caller's future.
+ * A search which failed on its own fails only its caller.
+ */
+class MultiSearchBatcher implements AutoCloseable {
+    private static final String RESPONSES = "responses";
+    private static final String ERROR = "error";
+    private static final byte[] HEADER_LINE = "{}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final RestClient restClient;
+    private final String multiSearchPath;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final Executor responseExecutor;
+    private final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .setRootValueSeparator(null);
+
+    private final ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("elastic-search-proxy-msearch-%d").setDaemon(true).build());
+
+    /**
+     * Guarded by the lock.
+     */
+    private final Lock lock = new ReentrantLock();
+    private List<PendingSearch> pendingSearches = new ArrayList<>();
+
+    /**
+     * @param responseExecutor splits the {@code _msearch} responses, so the HTTP client's I/O thread isn't blocked.
+     */
+    MultiSearchBatcher(final RestClient restClient, final String indexName, final int maxBatchSize,
+                       final long lingerMillis, final Executor responseExecutor) {
+        this.restClient = restClient;
+        this.multiSearchPath = "/" + indexName + "/_msearch";
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.responseExecutor = responseExecutor;
+    }
+
+    /**
+     * Queues the search for the next batch.
+     *
+     * @return a future which completes with the tokens of the search response (as returned by {@code _search}).
+     */
+    CompletableFuture<TokenBuffer> search(final String queryDsl) {
+        final PendingSearch pendingSearch = new PendingSearch(queryDsl);
+        List<PendingSearch> fullBatch = null;
+        boolean firstInBatch = false;
+
+        try {
+            lock.lock();
+            this.pendingSearches.add(pendingSearch);
+
+            if (this.pendingSearches.size() >= this.maxBatchSize) {
+                fullBatch = this.pendingSearches;
+                this.pendingSearches = new ArrayList<>();
+            } else {
+                firstInBatch = this.pendingSearches.size() == 1;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (fullBatch != null) {
+            send(fullBatch);
+        } else if (firstInBatch) {
+            try {
+                this.lingerScheduler.schedule(this::flush, this.lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                // The batcher is closed - send right away.
+                flush();
+            }
+        }
+
+        return pendingSearch.result;
+    }
+
+    /**
+     * Sends the pending searches and stops the linger timer.
+     */
+    @Override
+    public void close() {
+        this.lingerScheduler.shutdownNow();
+        flush();
+    }
+
+    private void flush() {
+        final List<PendingSearch> batch;
+
+        try {
+            lock.lock();
+            batch = this.pendingSearches;
+            this.pendingSearches = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private void send(final List<PendingSearch> batch) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            for (final PendingSearch pendingSearch : batch) {
+                body.write(HEADER_LINE);
+                writeSingleLine(pendingSearch.queryDsl, body);
+                body.write('\n');
+            }
+        } catch (final IOException | RuntimeException e) {
+            failAll(batch, e);
+            return;
+        }
+
+        this.restClient.performRequestAsync(HttpMethod.POST, this.multiSearchPath, Collections.emptyMap(),
+                new NByteArrayEntity(body.toByteArray(), BulkEncoder.NDJSON_CONTENT_TYPE),
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(final Response response) {
+                        try {
+                            responseExecutor.execute(() -> completeAll(batch, response));
+                        } catch (final RejectedExecutionException e) {
+                            failAll(batch, e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        failAll(batch, e);
+                    }
+                });
+    }
+
+    /**
+     * Each search of a {@code _msearch} body should take a single line - the query is copied token by token
+     * without its whitespace.
+     */
+    private void writeSingleLine(final String queryDsl, final ByteArrayOutputStream body) throws IOException {
+        try (JsonParser parser = this.jsonFactory.createParser(queryDsl);
+             JsonGenerator generator = this.jsonFactory.createGenerator(body)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    private void completeAll(final List<PendingSearch> batch, final Response response) {
+        if (response.getStatusLine().getStatusCode() != Status.OK.getStatusCode() || response.getEntity() == null) {
+            failAll(batch, new InternalServiceException("internal failure"));
+            return;
+        }
+
+        int index = 0;
+        try (InputStream content = response.getEntity().getContent();
+             JsonParser parser = this.jsonFactory.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidDataException("responses array is missing from multi search results");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                parser.nextToken();
+
+                if (!RESPONSES.equals(fieldName) || parser.currentToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (index >= batch.size()) {
+                        parser.skipChildren();
+                        continue;
+                    }
+
+                    final TokenBuffer singleResponse = new TokenBuffer(parser);
+                    final boolean failed = copyResponse(parser, singleResponse);
+                    complete(batch.get(index++), singleResponse, failed);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            failAll(batch.subList(index, batch.size()), e);
+            return;
+        }
+
+        failAll(batch.subList(index, batch.size()),
+                new InvalidDataException("multi search results are missing a response"));
+    }
+
+    /**
+     * Copies a single response of the {@code _msearch} response - the parser is on the start of the response, and
+     * is left on its end.
+     *
+     * @return true if the search failed - its response has an {@code error} field.
+     */
+    private static boolean copyResponse(final JsonParser parser, final TokenBuffer singleResponse)
+            throws IOException {
+        boolean failed = false;
+
+        singleResponse.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            failed |= ERROR.equals(parser.getCurrentName());
+            singleResponse.copyCurrentEvent(parser);
+            parser.nextToken();
+            singleResponse.copyCurrentStructure(parser);
+        }
+        singleResponse.writeEndObject();
+
+        return failed;
+    }
+
+    private void complete(final PendingSearch pendingSearch, final TokenBuffer singleResponse, final boolean failed)
+            throws IOException {
+        if (!failed) {
+            pendingSearch.result.complete(singleResponse);
+            return;
+        }
+
+        final StringWriter error = new StringWriter();
+        try (JsonGenerator generator = this.jsonFactory.createGenerator(error)) {
+            singleResponse.serialize(generator);
+        }
+        pendingSearch.result.completeExceptionally(new InternalServiceException("search failure: " + error));
+    }
+
+    private static void failAll(final List<PendingSearch> batch, final Exception e) {
+        final RuntimeException failure = e instanceof RuntimeException ? (RuntimeException) e
+                : new InternalServiceException(e);
+        batch.forEach(pendingSearch -> pendingSearch.result.completeExceptionally(failure));
+    }
+
+    private static class PendingSearch {
+        private final String queryDsl;
+        private final CompletableFuture<TokenBuffer> result = new CompletableFuture<>();
+
+        private PendingSearch(final String queryDsl) {
+            this.queryDsl = queryDsl;
+        }
+    }
+}
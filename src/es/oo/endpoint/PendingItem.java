@@ -0,0 +1,84 @@
+package es.oo.endpoint;
+
+import es.oo.exceptions.IndexingException;
+import es.oo.model.attributes.AttributesMap;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An item which is waiting to be indexed as part of a bulk, together with the future of its indexing result.
+ *
+ * Pending items are immutable - coalescing a write into a pending item creates a new item which shares the
+ * future of the pending one, so all the callers whose writes were folded in get the same outcome.
+ */
+class PendingItem {
+    private final String id;
+    private final AttributesMap attributesMap;
+    private final byte[] serializedItem;
+    private final CompletableFuture<BulkItemResponse> result;
+
+    PendingItem(final String id, final AttributesMap attributesMap, final byte[] serializedItem) {
+        this(id, attributesMap, serializedItem, new CompletableFuture<>());
+    }
+
+    private PendingItem(final String id,
+                        final AttributesMap attributesMap,
+                        final byte[] serializedItem,
+                        final CompletableFuture<BulkItemResponse> result) {
+        this.id = id;
+        this.attributesMap = attributesMap;
+        this.serializedItem = serializedItem;
+        this.result = result;
+    }
+
+    /**
+     * Creates an item with the given content which completes the future of this item.
+     */
+    PendingItem withContent(final AttributesMap attributesMap, final byte[] serializedItem) {
+        return new PendingItem(this.id, attributesMap, serializedItem, this.result);
+    }
+
+    String getId() {
+        return this.id;
+    }
+
+    AttributesMap getAttributesMap() {
+        return this.attributesMap;
+    }
+
+    /**
+     * The item serialized as UTF-8 JSON.
+     */
+    byte[] getSerializedItem() {
+        return this.serializedItem;
+    }
+
+    /**
+     * An estimation of the item's size in a bulk.
+     */
+    int getSizeInBytes() {
+        return this.serializedItem.length;
+    }
+
+    CompletableFuture<BulkItemResponse> getResult() {
+        return this.result;
+    }
+
+    /**
+     * Completes the item's future from its bulk item response. A failed item completes exceptionally.
+     */
+    void complete(final String indexName, final BulkItemResponse bulkItemResponse) {
+        if (bulkItemResponse == null) {
+            this.result.completeExceptionally(new IndexingException(this.id));
+        } else if (bulkItemResponse.isFailed()) {
+            this.result.completeExceptionally(new IndexingException(this.id, indexName, bulkItemResponse.getFailure()));
+        } else {
+            this.result.complete(bulkItemResponse);
+        }
+    }
+
+    void fail(final Exception e) {
+        this.result.completeExceptionally(e instanceof IndexingException ? e : new IndexingException(e));
+    }
+}
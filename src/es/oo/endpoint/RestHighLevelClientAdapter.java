@@ -1,6 +1,8 @@
 package es.oo.endpoint;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.RestClient;
@@ -15,6 +17,11 @@ public interface RestHighLevelClientAdapter {
 
     BulkResponse bulk(BulkRequest bulkRequest) throws IOException;
 
+    /**
+     * Sends a bulk request with the given NDJSON body, and parses its response.
+     */
+    void bulkAsync(HttpEntity bulkBody, ActionListener<BulkResponse> listener);
+
     void createIndex(final String indexName, final String typeName);
 
     void deleteIndex(final String indexName);
@@ -2,18 +2,28 @@ package es.oo.endpoint;
 
 import es.oo.exceptions.InternalServiceException;
 import es.oo.model.attributes.AttributesMap;
+import org.apache.http.HttpEntity;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.IndicesClient;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
 
+import javax.ws.rs.HttpMethod;
 import java.io.IOException;
+import java.util.Collections;
 
 /**
  * An adapter impl for the {@link RestHighLevelClientAdapter}.
@@ -38,12 +48,29 @@ public class RestHighLevelClientAdapterImpl implements RestHighLevelClientAdapte
             "  }\n" +
             "}";
 
+    private static final String BULK_PATH = "/_bulk";
+
     private RestHighLevelClient restHighLevelClient;
 
     public RestHighLevelClientAdapterImpl(RestHighLevelClient restHighLevelClient) throws IOException {
         this.restHighLevelClient = restHighLevelClient;
     }
 
+    /**
+     * Bounds every request of the clients of the given builder by the given socket timeout, so a node which stops
+     * responding fails the request rather than holding its caller. The retries of a request are bounded the same,
+     * so they aren't cut shorter than a single request.
+     *
+     * The low level client doesn't take options per request, so a search with its own timeout is bounded by both -
+     * its future fails once its timeout passed, and its request once the socket timeout passed.
+     */
+    public static RestClientBuilder withSocketTimeout(final RestClientBuilder builder,
+                                                      final int socketTimeoutMillis) {
+        return builder
+                .setRequestConfigCallback(requestConfig -> requestConfig.setSocketTimeout(socketTimeoutMillis))
+                .setMaxRetryTimeoutMillis(socketTimeoutMillis);
+    }
+
     @Override
     public RestClient getLowLevelClient() {
         return this.restHighLevelClient.getLowLevelClient();
@@ -54,6 +81,31 @@ public class RestHighLevelClientAdapterImpl implements RestHighLevelClientAdapte
         return this.restHighLevelClient.bulk(bulkRequest);
     }
 
+    @Override
+    public void bulkAsync(final HttpEntity bulkBody, final ActionListener<BulkResponse> listener) {
+        this.getLowLevelClient().performRequestAsync(HttpMethod.POST, BULK_PATH, Collections.emptyMap(), bulkBody,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(final Response response) {
+                        final BulkResponse bulkResponse;
+                        try (XContentParser parser = XContentType.JSON.xContent().createParser(
+                                NamedXContentRegistry.EMPTY, response.getEntity().getContent())) {
+                            bulkResponse = BulkResponse.fromXContent(parser);
+                        } catch (final Exception e) {
+                            listener.onFailure(e);
+                            return;
+                        }
+
+                        listener.onResponse(bulkResponse);
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        listener.onFailure(e);
+                    }
+                });
+    }
+
     @Override
     public void deleteIndex(final String indexName) {
         try {
@@ -0,0 +1,147 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A policy for retrying failed bulk writes with exponential backoff and jitter.
+ *
+ * Only failures which are likely to succeed later are retried - items which were rejected because the cluster
+ * is overloaded ({@link RestStatus#TOO_MANY_REQUESTS}, {@link RestStatus#SERVICE_UNAVAILABLE}) and bulks which
+ * failed on the transport level.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double jitter;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.jitter = builder.jitter;
+    }
+
+    public static RetryPolicy defaultPolicy() {
+        return createBuilder().build();
+    }
+
+    public static RetryPolicy noRetries() {
+        return createBuilder().withMaxAttempts(1).build();
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The max number of times an item is sent, including the first time.
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return this.initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return this.maxBackoffMillis;
+    }
+
+    /**
+     * The fraction of the backoff which is randomized, so retries of concurrent writers don't arrive together.
+     */
+    public double getJitter() {
+        return this.jitter;
+    }
+
+    /**
+     * Returns true if another attempt is allowed after the given (1 based) attempt failed.
+     */
+    public boolean canRetry(final int attempt) {
+        return attempt < this.maxAttempts;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt, after the given (1 based) attempt failed.
+     */
+    public long getBackoffMillis(final int attempt) {
+        final long exponentialBackoff = this.initialBackoffMillis << Math.min(attempt - 1, 30);
+        final long backoff = Math.min(this.maxBackoffMillis, Math.max(0, exponentialBackoff));
+        final double jitterMillis = backoff * this.jitter * ThreadLocalRandom.current().nextDouble();
+
+        return backoff - (long) jitterMillis;
+    }
+
+    public boolean isRetryable(final RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Returns true if a whole bulk which failed with the given exception should be retried.
+     */
+    public boolean isRetryable(final Exception e) {
+        if (e instanceof ResponseException) {
+            final int statusCode = ((ResponseException) e).getResponse().getStatusLine().getStatusCode();
+            return isRetryable(RestStatus.fromCode(statusCode));
+        }
+
+        if (e instanceof ElasticsearchStatusException) {
+            return isRetryable(((ElasticsearchStatusException) e).status());
+        }
+
+        return e instanceof IOException;
+    }
+
+    /**
+     * A builder for {@link RetryPolicy}.
+     */
+    public static class Builder {
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+        private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+        private double jitter = DEFAULT_JITTER;
+
+        private Builder() {}
+
+        public Builder withMaxAttempts(final int maxAttempts) {
+            Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder withInitialBackoffMillis(final long initialBackoffMillis) {
+            Preconditions.checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis can't be negative");
+            this.initialBackoffMillis = initialBackoffMillis;
+            return this;
+        }
+
+        public Builder withMaxBackoffMillis(final long maxBackoffMillis) {
+            Preconditions.checkArgument(maxBackoffMillis >= 0, "maxBackoffMillis can't be negative");
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        public Builder withJitter(final double jitter) {
+            Preconditions.checkArgument(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+            this.jitter = jitter;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
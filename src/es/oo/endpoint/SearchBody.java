@@ -0,0 +1,48 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.oo.exceptions.InvalidDataException;
+
+import java.util.Map;
+
+/**
+ * Adds top level fields to the body of a search.
+ *
+ * The query DSL of a search is bound from a template (see
+ * {@link es.oo.model.attributes.searchable.SearchableAttributesMapsList#toDslQueryString()}), so rather than
+ * parsing it again, the fields are written right before its closing brace.
+ */
+class SearchBody {
+    private SearchBody() {
+    }
+
+    /**
+     * @param queryDsl a search body - a JSON object such as {@code { "query": {...} }}.
+     * @param fields top level fields of the search body, written by the given mapper.
+     */
+    static String withFields(final ObjectMapper objectMapper, final String queryDsl, final Map<String, ?> fields)
+            throws JsonProcessingException {
+        if (fields.isEmpty()) {
+            return queryDsl;
+        }
+
+        final int closingBrace = queryDsl.lastIndexOf('}');
+        if (closingBrace < 0) {
+            throw new InvalidDataException("search body isn't a JSON object: " + queryDsl);
+        }
+
+        final StringBuilder body = new StringBuilder(queryDsl.length() + 64);
+        body.append(queryDsl, 0, closingBrace);
+
+        for (final Map.Entry<String, ?> field : fields.entrySet()) {
+            body.append(", ")
+                    .append(objectMapper.writeValueAsString(field.getKey()))
+                    .append(": ")
+                    .append(objectMapper.writeValueAsString(field.getValue()));
+        }
+
+        body.append(queryDsl, closingBrace, queryDsl.length());
+        return body.toString();
+    }
+}
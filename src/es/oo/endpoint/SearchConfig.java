@@ -0,0 +1,178 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+import es.oo.model.attributes.searchable.QueryMode;
+
+/**
+ * Configuration of the searches of the {@link ElasticSearchProxy}.
+ *
+ * When {@link #getMaxSearchBatchSize()} is more than 1, concurrent searches are gathered into a single
+ * {@code _msearch} request, which is sent once it is full or once its first search waited
+ * {@link #getSearchBatchLingerMillis()}.
+ *
+ * When {@link #getSearchCacheMaxEntries()} is positive, the results of map searches are cached for
+ * {@link #getSearchCacheTtlMillis()}, and writes invalidate the cached results of the namespaces they touch -
+ * until {@link #getSearchCacheRefreshIntervalMillis()} after they were indexed, since searches only see them once
+ * the index is refreshed.
+ *
+ * When {@link #isSearchCoalescing()} is set, identical searches which are in flight together are sent once, and
+ * share its decoded hits.
+ *
+ * When a {@link HedgingPolicy} is set, searches which are slower than most are sent again, and the first
+ * response is taken.
+ *
+ * Searches match their attributes according to the {@link QueryMode}, unless a search sets its own
+ * {@link SearchOptions}.
+ */
+public class SearchConfig {
+    public static final int DEFAULT_MAX_SEARCH_BATCH_SIZE = 1;
+    public static final long DEFAULT_SEARCH_BATCH_LINGER_MILLIS = 2;
+    public static final long DEFAULT_SEARCH_CACHE_MAX_ENTRIES = 0;
+    public static final long DEFAULT_SEARCH_CACHE_TTL_MILLIS = 60 * 1000;
+    public static final long DEFAULT_SEARCH_CACHE_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final int maxSearchBatchSize;
+    private final long searchBatchLingerMillis;
+    private final long searchCacheMaxEntries;
+    private final long searchCacheTtlMillis;
+    private final long searchCacheRefreshIntervalMillis;
+    private final boolean searchCoalescing;
+    private final HedgingPolicy hedgingPolicy;
+    private final QueryMode queryMode;
+
+    private SearchConfig(final Builder builder) {
+        this.maxSearchBatchSize = builder.maxSearchBatchSize;
+        this.searchBatchLingerMillis = builder.searchBatchLingerMillis;
+        this.searchCacheMaxEntries = builder.searchCacheMaxEntries;
+        this.searchCacheTtlMillis = builder.searchCacheTtlMillis;
+        this.searchCacheRefreshIntervalMillis = builder.searchCacheRefreshIntervalMillis;
+        this.searchCoalescing = builder.searchCoalescing;
+        this.hedgingPolicy = builder.hedgingPolicy;
+        this.queryMode = builder.queryMode;
+    }
+
+    public static SearchConfig defaultConfig() {
+        return createBuilder().build();
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The max number of searches in a single {@code _msearch} request, 1 if searches aren't batched.
+     */
+    public int getMaxSearchBatchSize() {
+        return this.maxSearchBatchSize;
+    }
+
+    public long getSearchBatchLingerMillis() {
+        return this.searchBatchLingerMillis;
+    }
+
+    /**
+     * The max number of cached search results, 0 if search results aren't cached.
+     */
+    public long getSearchCacheMaxEntries() {
+        return this.searchCacheMaxEntries;
+    }
+
+    public long getSearchCacheTtlMillis() {
+        return this.searchCacheTtlMillis;
+    }
+
+    /**
+     * The refresh interval of the index - how long after a write is indexed searches may still miss it.
+     */
+    public long getSearchCacheRefreshIntervalMillis() {
+        return this.searchCacheRefreshIntervalMillis;
+    }
+
+    /**
+     * Whether identical searches - the same query DSL, decoded to the same type - share a single request while
+     * they are in flight.
+     */
+    public boolean isSearchCoalescing() {
+        return this.searchCoalescing;
+    }
+
+    /**
+     * The hedging policy of searches, null if searches aren't hedged.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return this.hedgingPolicy;
+    }
+
+    /**
+     * The query mode of searches which don't set their own.
+     */
+    public QueryMode getQueryMode() {
+        return this.queryMode;
+    }
+
+    /**
+     * A builder for {@link SearchConfig}.
+     */
+    public static class Builder {
+        private int maxSearchBatchSize = DEFAULT_MAX_SEARCH_BATCH_SIZE;
+        private long searchBatchLingerMillis = DEFAULT_SEARCH_BATCH_LINGER_MILLIS;
+        private long searchCacheMaxEntries = DEFAULT_SEARCH_CACHE_MAX_ENTRIES;
+        private long searchCacheTtlMillis = DEFAULT_SEARCH_CACHE_TTL_MILLIS;
+        private long searchCacheRefreshIntervalMillis = DEFAULT_SEARCH_CACHE_REFRESH_INTERVAL_MILLIS;
+        private boolean searchCoalescing = false;
+        private HedgingPolicy hedgingPolicy = null;
+        private QueryMode queryMode = QueryMode.MATCH;
+
+        private Builder() {}
+
+        public Builder withMaxSearchBatchSize(final int maxSearchBatchSize) {
+            Preconditions.checkArgument(maxSearchBatchSize > 0, "maxSearchBatchSize must be positive");
+            this.maxSearchBatchSize = maxSearchBatchSize;
+            return this;
+        }
+
+        public Builder withSearchBatchLingerMillis(final long searchBatchLingerMillis) {
+            Preconditions.checkArgument(searchBatchLingerMillis >= 0, "searchBatchLingerMillis can't be negative");
+            this.searchBatchLingerMillis = searchBatchLingerMillis;
+            return this;
+        }
+
+        public Builder withSearchCacheMaxEntries(final long searchCacheMaxEntries) {
+            Preconditions.checkArgument(searchCacheMaxEntries >= 0, "searchCacheMaxEntries can't be negative");
+            this.searchCacheMaxEntries = searchCacheMaxEntries;
+            return this;
+        }
+
+        public Builder withSearchCacheTtlMillis(final long searchCacheTtlMillis) {
+            Preconditions.checkArgument(searchCacheTtlMillis > 0, "searchCacheTtlMillis must be positive");
+            this.searchCacheTtlMillis = searchCacheTtlMillis;
+            return this;
+        }
+
+        public Builder withSearchCacheRefreshIntervalMillis(final long searchCacheRefreshIntervalMillis) {
+            Preconditions.checkArgument(searchCacheRefreshIntervalMillis >= 0,
+                    "searchCacheRefreshIntervalMillis can't be negative");
+            this.searchCacheRefreshIntervalMillis = searchCacheRefreshIntervalMillis;
+            return this;
+        }
+
+        public Builder withSearchCoalescing(final boolean searchCoalescing) {
+            this.searchCoalescing = searchCoalescing;
+            return this;
+        }
+
+        public Builder withHedgingPolicy(final HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        public Builder withQueryMode(final QueryMode queryMode) {
+            this.queryMode = Preconditions.checkNotNull(queryMode);
+            return this;
+        }
+
+        public SearchConfig build() {
+            return new SearchConfig(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package es.oo.endpoint;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends searches according to a {@link HedgingPolicy} - a search which didn't complete within the percentile of
+ * the recent latencies is sent again, and the first response completes the search.
+ *
+ * A hedge isn't a retry - a search which failed before it was hedged fails right away, and a hedged search fails
+ * only once both its requests failed. Completing the returned future, for example by cancelling it, stops a hedge
+ * which wasn't sent yet.
+ *
+ * The percentile isn't taken on every search - it is recomputed once a tenth of the recent latencies were replaced,
+ * and searches read the last one.
+ */
+class SearchHedger {
+    private static final int RECOMPUTES_PER_SAMPLE = 10;
+
+    private final HedgingPolicy hedgingPolicy;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The latencies of the recent searches, a ring guarded by this.
+     */
+    private final long[] latencyNanos;
+    private int nextLatency = 0;
+    private int latencyCount = 0;
+    private final int recomputeInterval;
+    private int latenciesSinceRecompute = 0;
+
+    /**
+     * The delay of the hedges, negative until enough latencies were recorded.
+     */
+    private volatile long hedgeDelayNanos = -1;
+
+    SearchHedger(final HedgingPolicy hedgingPolicy, final ScheduledExecutorService timer) {
+        this.hedgingPolicy = hedgingPolicy;
+        this.timer = timer;
+        this.latencyNanos = new long[hedgingPolicy.getSampleSize()];
+        this.recomputeInterval = Math.max(1, hedgingPolicy.getSampleSize() / RECOMPUTES_PER_SAMPLE);
+    }
+
+    <T> CompletableFuture<T> send(final Supplier<CompletableFuture<T>> search) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long startNanos = System.nanoTime();
+        final long hedgeDelayNanos = hedgeDelayNanos();
+
+        // The requests which may still complete the search - the hedge counts until it is either sent or stopped.
+        final AtomicInteger pendingRequests = new AtomicInteger(1);
+        ScheduledFuture<?> hedge = null;
+        if (hedgeDelayNanos >= 0) {
+            try {
+                pendingRequests.incrementAndGet();
+                hedge = this.timer.schedule(() -> {
+                    if (!result.isDone()) {
+                        sendRequest(search, result, startNanos, pendingRequests, null);
+                    }
+                }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (final RejectedExecutionException e) {
+                // The timer is shut down - the search isn't hedged.
+                pendingRequests.decrementAndGet();
+            }
+        }
+
+        sendRequest(search, result, startNanos, pendingRequests, hedge);
+
+        if (hedge != null) {
+            final ScheduledFuture<?> scheduledHedge = hedge;
+            result.whenComplete((value, e) -> scheduledHedge.cancel(false));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the delay of the hedge of a search which starts now, negative if it shouldn't be hedged.
+     */
+    long hedgeDelayNanos() {
+        return this.hedgeDelayNanos;
+    }
+
+    void recordLatency(final long nanos) {
+        final long[] sortedLatencies;
+        synchronized (this) {
+            this.latencyNanos[this.nextLatency] = nanos;
+            this.nextLatency = (this.nextLatency + 1) % this.latencyNanos.length;
+            this.latencyCount = Math.min(this.latencyCount + 1, this.latencyNanos.length);
+            this.latenciesSinceRecompute++;
+
+            if (this.latencyCount < this.latencyNanos.length
+                    || this.latenciesSinceRecompute < this.recomputeInterval) {
+                return;
+            }
+
+            this.latenciesSinceRecompute = 0;
+            sortedLatencies = this.latencyNanos.clone();
+        }
+
+        // Sorted outside of the lock, so searches which complete meanwhile don't wait for it.
+        Arrays.sort(sortedLatencies);
+        final int index = (int) Math.ceil(this.hedgingPolicy.getPercentile() * sortedLatencies.length) - 1;
+        this.hedgeDelayNanos = Math.max(sortedLatencies[Math.max(0, index)],
+                TimeUnit.MILLISECONDS.toNanos(this.hedgingPolicy.getMinDelayMillis()));
+    }
+
+    /**
+     * @param hedge the hedge of the search which wasn't sent yet, null if this request is the hedge.
+     */
+    private <T> void sendRequest(final Supplier<CompletableFuture<T>> search,
+                                 final CompletableFuture<T> result,
+                                 final long startNanos,
+                                 final AtomicInteger pendingRequests,
+                                 final ScheduledFuture<?> hedge) {
+        CompletableFuture<T> request;
+        try {
+            request = search.get();
+        } catch (final RuntimeException e) {
+            request = new CompletableFuture<>();
+            request.completeExceptionally(e);
+        }
+
+        request.whenComplete((value, e) -> {
+            if (e == null) {
+                if (result.complete(value)) {
+                    recordLatency(System.nanoTime() - startNanos);
+                }
+                return;
+            }
+
+            int remainingRequests = pendingRequests.decrementAndGet();
+            if (hedge != null && hedge.cancel(false)) {
+                remainingRequests = pendingRequests.decrementAndGet();
+            }
+            if (remainingRequests == 0) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package es.oo.endpoint;
+
+import es.oo.exceptions.InternalServiceException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Iterates over the hits of a scrolled search, page by page.
+ *
+ * The first page is fetched on the first call to {@link #hasNext()}, and every page prefetches the next one in the
+ * background - so at most two pages are held at a time. The scroll is cleared once the last page is read, or when
+ * the iterator is closed.
+ */
+class SearchHitsIterator<T> implements Iterator<T>, AutoCloseable {
+    private static final Log log = LogFactory.getLog(SearchHitsIterator.class);
+
+    private final ScrollClient<T> scrollClient;
+    private final int pageSize;
+    private final Executor executor;
+
+    private List<T> hits = Collections.emptyList();
+    private int index = 0;
+    private CompletableFuture<SearchPage<T>> nextPage = null;
+    private String scrollId = null;
+    private boolean started = false;
+    private boolean closed = false;
+
+    SearchHitsIterator(final ScrollClient<T> scrollClient, final int pageSize, final Executor executor) {
+        this.scrollClient = scrollClient;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.started) {
+            this.started = true;
+            this.nextPage = fetch(null);
+        }
+
+        while (this.index >= this.hits.size()) {
+            if (this.closed || this.nextPage == null) {
+                close();
+                return false;
+            }
+
+            final SearchPage<T> page = awaitNextPage();
+            if (page.getScrollId() != null) {
+                this.scrollId = page.getScrollId();
+            }
+
+            this.hits = page.getHits();
+            this.index = 0;
+
+            // A partial page is the last one - there's no need to ask for an empty page.
+            this.nextPage = this.hits.size() < this.pageSize ? null : fetch(this.scrollId);
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.hits.get(this.index++);
+    }
+
+    /**
+     * Clears the scroll. If a page is still being fetched, the scroll is cleared once it arrives.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.hits = Collections.emptyList();
+
+        if (this.nextPage != null) {
+            this.nextPage.whenComplete((page, e) ->
+                    clearScroll(page != null && page.getScrollId() != null ? page.getScrollId() : this.scrollId));
+            this.nextPage = null;
+        } else {
+            clearScroll(this.scrollId);
+        }
+    }
+
+    private CompletableFuture<SearchPage<T>> fetch(final String scrollId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return scrollId == null ? this.scrollClient.search() : this.scrollClient.scroll(scrollId);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, this.executor);
+    }
+
+    private SearchPage<T> awaitNextPage() {
+        try {
+            return this.nextPage.join();
+        } catch (final CompletionException e) {
+            this.nextPage = null;
+            close();
+
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw new InternalServiceException(e.getCause().getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new InternalServiceException(e.getCause());
+        }
+    }
+
+    private void clearScroll(final String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+
+        try {
+            this.scrollClient.clearScroll(scrollId);
+        } catch (final IOException | RuntimeException e) {
+            // The scroll expires by itself after its keep alive.
+            log.warn("Failed to clear scroll", e);
+        }
+    }
+
+    /**
+     * The requests of a scrolled search.
+     */
+    interface ScrollClient<T> {
+        /**
+         * Opens the scroll and returns its first page.
+         */
+        SearchPage<T> search() throws IOException;
+
+        SearchPage<T> scroll(String scrollId) throws IOException;
+
+        void clearScroll(String scrollId) throws IOException;
+    }
+}
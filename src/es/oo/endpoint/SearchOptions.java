@@ -0,0 +1,137 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import es.oo.model.attributes.searchable.QueryMode;
+
+import java.util.List;
+
+/**
+ * Options of a single search of the {@link ElasticSearchProxy}. Options which aren't set fall back to the
+ * {@link SearchConfig} of the proxy.
+ *
+ * Searches for objects of a class fetch only the namespace of the class from the {@code _source} of every hit,
+ * while map searches fetch the whole {@code _source} - unless the fields to fetch are set explicitly.
+ *
+ * Searches return the hits in the order of their relevance, and only the first 10 of them - unless they set
+ * {@link AttributeSort}s and a size, which are applied on the shards.
+ *
+ * A search with a timeout is given as much time on the shards - if some shards don't make it in time, the search
+ * fails rather than return partial hits - and its future fails once the timeout passed, so no caller waits for a
+ * straggler. The requests themselves are bounded by the socket timeout of the client, see
+ * {@link RestHighLevelClientAdapterImpl#withSocketTimeout}.
+ */
+public class SearchOptions {
+    private static final SearchOptions DEFAULT_OPTIONS = createBuilder().build();
+
+    private final QueryMode queryMode;
+    private final List<String> sourceIncludes;
+    private final List<AttributeSort> sorts;
+    private final Integer size;
+    private final Long timeoutMillis;
+
+    private SearchOptions(final Builder builder) {
+        this.queryMode = builder.queryMode;
+        this.sourceIncludes = builder.sourceIncludes;
+        this.sorts = builder.sorts;
+        this.size = builder.size;
+        this.timeoutMillis = builder.timeoutMillis;
+    }
+
+    public static SearchOptions defaultOptions() {
+        return DEFAULT_OPTIONS;
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The query mode of the search, null for the query mode of the proxy.
+     */
+    public QueryMode getQueryMode() {
+        return this.queryMode;
+    }
+
+    /**
+     * The fields of the {@code _source} which are fetched, empty for the default fields of the search.
+     */
+    public List<String> getSourceIncludes() {
+        return this.sourceIncludes;
+    }
+
+    /**
+     * The sorts of the hits, by priority - empty to sort the hits by relevance.
+     */
+    public List<AttributeSort> getSorts() {
+        return this.sorts;
+    }
+
+    /**
+     * The max number of hits, null for the default size of elastic search.
+     */
+    public Integer getSize() {
+        return this.size;
+    }
+
+    /**
+     * The deadline of the search, null if it has none.
+     */
+    public Long getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    /**
+     * A builder for {@link SearchOptions}.
+     */
+    public static class Builder {
+        private QueryMode queryMode = null;
+        private List<String> sourceIncludes = ImmutableList.of();
+        private List<AttributeSort> sorts = ImmutableList.of();
+        private Integer size = null;
+        private Long timeoutMillis = null;
+
+        private Builder() {}
+
+        public Builder withQueryMode(final QueryMode queryMode) {
+            this.queryMode = Preconditions.checkNotNull(queryMode);
+            return this;
+        }
+
+        /**
+         * @param sourceIncludes full paths of {@code _source} fields, such as {@code namespaceMap.Person.name} -
+         *                       wildcards are allowed.
+         */
+        public Builder withSourceIncludes(final String... sourceIncludes) {
+            this.sourceIncludes = ImmutableList.copyOf(sourceIncludes);
+            return this;
+        }
+
+        /**
+         * @param sorts the sorts of the hits, by priority - the first sort is the primary one.
+         */
+        public Builder withSorts(final AttributeSort... sorts) {
+            this.sorts = ImmutableList.copyOf(sorts);
+            return this;
+        }
+
+        /**
+         * Together with sorts, returns the top N hits.
+         */
+        public Builder withSize(final int size) {
+            Preconditions.checkArgument(size >= 0, "size can't be negative");
+            this.size = size;
+            return this;
+        }
+
+        public Builder withTimeoutMillis(final long timeoutMillis) {
+            Preconditions.checkArgument(timeoutMillis > 0, "timeoutMillis must be positive");
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public SearchOptions build() {
+            return new SearchOptions(this);
+        }
+    }
+}
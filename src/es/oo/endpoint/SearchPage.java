@@ -0,0 +1,27 @@
+package es.oo.endpoint;
+
+import java.util.List;
+
+/**
+ * The decoded hits of a single search response, with the scroll id to fetch the next page by.
+ */
+class SearchPage<T> {
+    private final String scrollId;
+    private final List<T> hits;
+
+    SearchPage(final String scrollId, final List<T> hits) {
+        this.scrollId = scrollId;
+        this.hits = hits;
+    }
+
+    /**
+     * The scroll id of the response, null if the search didn't open a scroll.
+     */
+    String getScrollId() {
+        return this.scrollId;
+    }
+
+    List<T> getHits() {
+        return this.hits;
+    }
+}
@@ -0,0 +1,383 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import es.oo.exceptions.InternalServiceException;
+import es.oo.exceptions.InvalidDataException;
+import es.oo.model.attributes.AttributesMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Decodes the hits of a search response straight from the response stream, in a single pass:
+ *
+ *     {"took":1,...,"hits":{"total":2,...,"hits":[{"_id":"someId",...,"_source":{"namespaceMap":{...}}},...]}}
+ *
+ * Only the {@code _source} of every hit is bound - either to a whole {@link AttributesMap}, or only its
+ * {@code namespaceMap.<SimpleName>} to an object of the requested class. All the other fields are skipped without
+ * being materialized.
+ *
+ * The {@code _scroll_id} of the response is kept as well, so scrolled searches can fetch their next page. A response
+ * which {@code timed_out} fails to decode - some of its shards didn't make it in time, so its hits are partial.
+ *
+ * A response can be decoded from a parser as well, such as a parser over the buffered tokens of a single response
+ * of a multi search, so it isn't parsed twice.
+ *
+ * The documents of get and multi get responses are decoded the same way, from their {@code _source}.
+ *
+ * Searches which need only the number of hits, and {@code _count} requests, are decoded without any hits. So are
+ * aggregations, whose results are small enough to be read as a tree.
+ */
+class SearchResponseDecoder {
+    private static final String HITS = "hits";
+    private static final String SOURCE = "_source";
+    private static final String SCROLL_ID = "_scroll_id";
+    private static final String TIMED_OUT = "timed_out";
+    private static final String TOTAL = "total";
+    private static final String COUNT = "count";
+    private static final String AGGREGATIONS = "aggregations";
+    private static final String BUCKETS = "buckets";
+    private static final String KEY = "key";
+    private static final String KEY_AS_STRING = "key_as_string";
+    private static final String DOC_COUNT = "doc_count";
+    private static final String VALUE = "value";
+    private static final String ID = "_id";
+    private static final String FOUND = "found";
+    private static final String DOCS = "docs";
+    private static final String ERROR = "error";
+    private static final String NAMESPACE_MAP = AttributesMap.NAMESPACE_MAP;
+
+    private final ObjectMapper objectMapper;
+
+    SearchResponseDecoder(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    List<AttributesMap> decode(final InputStream content) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            return decode(parser);
+        }
+    }
+
+    /**
+     * Like {@link #decode(InputStream)}, from a parser which is before the start of the response.
+     */
+    List<AttributesMap> decode(final JsonParser parser) throws IOException {
+        return decodePage(parser, hitParser -> this.objectMapper.readValue(hitParser, AttributesMap.class))
+                .getHits();
+    }
+
+    /**
+     * Decodes the namespace of the given class in every hit, hits without the namespace are decoded as null.
+     */
+    <T> List<T> decode(final InputStream content, final Class<T> tClass) throws IOException {
+        return decodePage(content, tClass).getHits();
+    }
+
+    /**
+     * Like {@link #decode(InputStream, Class)}, from a parser which is before the start of the response.
+     */
+    <T> List<T> decode(final JsonParser parser, final Class<T> tClass) throws IOException {
+        return decodePage(parser, toSourceReader(tClass)).getHits();
+    }
+
+    /**
+     * Like {@link #decode(InputStream, Class)}, keeping the scroll id of the response.
+     */
+    <T> SearchPage<T> decodePage(final InputStream content, final Class<T> tClass) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            return decodePage(parser, toSourceReader(tClass));
+        }
+    }
+
+    /**
+     * Decodes the document of a get response, null if it wasn't found or doesn't have the namespace of the class.
+     */
+    <T> T decodeDocument(final InputStream content, final Class<T> tClass) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidDataException("document is missing from get results");
+            }
+
+            final Document<T> document = decodeDocument(parser, toSourceReader(tClass));
+            return document.found ? document.source : null;
+        }
+    }
+
+    /**
+     * Decodes the documents of a multi get response by their ids, in the order of the response. Documents which
+     * weren't found or don't have the namespace of the class are left out.
+     */
+    <T> Map<String, T> decodeDocuments(final InputStream content, final Class<T> tClass) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, DOCS)
+                    || parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new InvalidDataException("docs array is missing from multi get results");
+            }
+
+            final SourceReader<T> sourceReader = toSourceReader(tClass);
+            final Map<String, T> documents = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final Document<T> document = decodeDocument(parser, sourceReader);
+                if (document.found && document.source != null) {
+                    documents.put(document.id, document.source);
+                }
+            }
+
+            return documents;
+        }
+    }
+
+    /**
+     * Decodes the fields of a document - the parser is on the start of the document, and is left on its end.
+     */
+    private static <T> Document<T> decodeDocument(final JsonParser parser, final SourceReader<T> sourceReader)
+            throws IOException {
+        String id = null;
+        boolean found = false;
+        T source = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if (ID.equals(fieldName)) {
+                id = parser.getValueAsString();
+            } else if (FOUND.equals(fieldName)) {
+                found = parser.getValueAsBoolean();
+            } else if (SOURCE.equals(fieldName)) {
+                source = sourceReader.read(parser);
+            } else if (ERROR.equals(fieldName)) {
+                throw new InternalServiceException("get failure for document " + id + ": "
+                        + parser.readValueAsTree());
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return new Document<>(id, found, source);
+    }
+
+    /**
+     * Reads only the namespace of the class from a source, a source without the namespace is read as null.
+     */
+    private <T> SourceReader<T> toSourceReader(final Class<T> tClass) {
+        final String namespace = tClass.getSimpleName();
+
+        return parser -> {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return null;
+            }
+
+            T object = null;
+            if (moveToField(parser, NAMESPACE_MAP)) {
+                if (parser.nextToken() == JsonToken.START_OBJECT && moveToField(parser, namespace)) {
+                    parser.nextToken();
+                    object = this.objectMapper.readValue(parser, tClass);
+                    skipRemainingFields(parser);
+                } else {
+                    parser.skipChildren();
+                }
+
+                // Skip the fields of the source which come after the namespace map.
+                skipRemainingFields(parser);
+            }
+
+            return object;
+        };
+    }
+
+    /**
+     * Decodes the {@code hits.total} of a search response.
+     */
+    long decodeTotalHits(final InputStream content) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, HITS)
+                    || parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, TOTAL)
+                    || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                throw new InvalidDataException("hits total is missing from search results");
+            }
+
+            return parser.getLongValue();
+        }
+    }
+
+    /**
+     * Decodes the {@code count} of a {@code _count} response.
+     */
+    long decodeCount(final InputStream content) throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, COUNT)
+                    || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                throw new InvalidDataException("count is missing from count results");
+            }
+
+            return parser.getLongValue();
+        }
+    }
+
+    /**
+     * Decodes the results of the aggregations under the given single bucket aggregation, by their names.
+     */
+    Map<String, AggregationResult> decodeAggregations(final InputStream content, final String parentName)
+            throws IOException {
+        try (JsonParser parser = this.objectMapper.getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, AGGREGATIONS)
+                    || parser.nextToken() != JsonToken.START_OBJECT || !moveToField(parser, parentName)
+                    || parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidDataException("aggregations are missing from search results");
+            }
+
+            final JsonNode parentNode = this.objectMapper.readTree(parser);
+            final Map<String, AggregationResult> results = new LinkedHashMap<>();
+
+            // The fields of the parent which aren't objects - such as its doc_count - aren't aggregations.
+            final Iterator<Map.Entry<String, JsonNode>> fields = parentNode.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getValue().isObject()) {
+                    results.put(field.getKey(), toAggregationResult(field.getValue()));
+                }
+            }
+
+            return results;
+        }
+    }
+
+    private AggregationResult toAggregationResult(final JsonNode aggregationNode) throws IOException {
+        if (!aggregationNode.has(BUCKETS)) {
+            final JsonNode valueNode = aggregationNode.get(VALUE);
+            final Double value = valueNode == null || valueNode.isNull() ? null : valueNode.asDouble();
+            return new AggregationResult(value, Collections.emptyList());
+        }
+
+        final List<AggregationBucket> buckets = Lists.newArrayList();
+        for (final JsonNode bucketNode : aggregationNode.get(BUCKETS)) {
+            final JsonNode keyNode = bucketNode.get(KEY);
+            final String keyAsString = bucketNode.has(KEY_AS_STRING) ? bucketNode.get(KEY_AS_STRING).asText()
+                    : keyNode.asText();
+            buckets.add(new AggregationBucket(this.objectMapper.treeToValue(keyNode, Object.class), keyAsString,
+                    bucketNode.path(DOC_COUNT).asLong()));
+        }
+
+        return new AggregationResult(null, buckets);
+    }
+
+    private static <T> SearchPage<T> decodePage(final JsonParser parser, final SourceReader<T> sourceReader)
+            throws IOException {
+        // An empty response has no hits.
+        if (parser.nextToken() == null) {
+            return new SearchPage<>(null, Lists.newArrayList());
+        }
+
+        String scrollId = null;
+        boolean timedOut = false;
+        List<T> hits = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if (SCROLL_ID.equals(fieldName)) {
+                scrollId = parser.getValueAsString();
+            } else if (TIMED_OUT.equals(fieldName)) {
+                timedOut = parser.getValueAsBoolean();
+            } else if (HITS.equals(fieldName) && parser.currentToken() == JsonToken.START_OBJECT) {
+                hits = decodeHits(parser, sourceReader);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (timedOut) {
+            throw new InternalServiceException(new TimeoutException(
+                    "search timed out on some of the shards, its hits are partial"));
+        }
+        if (hits == null) {
+            throw new InvalidDataException("hits node is missing from search results");
+        }
+
+        return new SearchPage<>(scrollId, hits);
+    }
+
+    /**
+     * Decodes the hits array of the outer hits object - the parser is left on the end of the outer hits object.
+     */
+    private static <T> List<T> decodeHits(final JsonParser parser, final SourceReader<T> sourceReader)
+            throws IOException {
+        if (!moveToField(parser, HITS) || parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new InvalidDataException("hits array node is missing from search results");
+        }
+
+        final List<T> hits = Lists.newArrayList();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (moveToField(parser, SOURCE)) {
+                parser.nextToken();
+                hits.add(sourceReader.read(parser));
+                skipRemainingFields(parser);
+            }
+        }
+
+        skipRemainingFields(parser);
+        return hits;
+    }
+
+    /**
+     * Moves the parser to the given field of the current object, skipping the fields before it.
+     *
+     * @return false if the object ended without the field - the parser is left on the end of the object.
+     */
+    private static boolean moveToField(final JsonParser parser, final String fieldName) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (fieldName.equals(parser.getCurrentName())) {
+                return true;
+            }
+
+            parser.nextToken();
+            parser.skipChildren();
+        }
+
+        return false;
+    }
+
+    /**
+     * Skips the remaining fields of the current object - the parser is left on the end of the object.
+     */
+    private static void skipRemainingFields(final JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static class Document<T> {
+        private final String id;
+        private final boolean found;
+        private final T source;
+
+        private Document(final String id, final boolean found, final T source) {
+            this.id = id;
+            this.found = found;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Reads the value of a hit's source - the parser is on the start of the value, and should be left on its end.
+     */
+    @FunctionalInterface
+    private interface SourceReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+}
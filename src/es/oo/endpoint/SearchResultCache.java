@@ -0,0 +1,136 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import es.oo.model.attributes.AttributesMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A cache of search results, keyed by the query DSL. Entries expire after a TTL, and the least recently used
+ * entries are evicted once the cache is full.
+ *
+ * Writes invalidate the cached results of the namespaces they touch. Rather than scanning the cache on every write,
+ * every write records until when its namespaces are unsettled - a refresh interval from the write, since searches
+ * only see it once the index is refreshed. A cached result remembers when its search was sent, and it is stale if
+ * any of its namespaces - the namespaces of the query or of the results - was unsettled by then.
+ *
+ * Every caller gets its own copy of the cached results, so callers can't change the results of one another.
+ */
+class SearchResultCache {
+    private final Cache<String, CachedResult> cache;
+    private final Ticker ticker;
+    private final long refreshIntervalNanos;
+    private final Map<String, Long> namespaceToUnsettledUntil = new ConcurrentHashMap<>();
+
+    SearchResultCache(final long maxEntries, final long ttlMillis, final long refreshIntervalMillis) {
+        this(maxEntries, ttlMillis, refreshIntervalMillis, Ticker.systemTicker());
+    }
+
+    SearchResultCache(final long maxEntries, final long ttlMillis, final long refreshIntervalMillis,
+                      final Ticker ticker) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        this.ticker = ticker;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+    }
+
+    /**
+     * @return the cached results of the query, or null if there are none or they are stale.
+     */
+    List<AttributesMap> get(final String queryDsl) {
+        final CachedResult cachedResult = this.cache.getIfPresent(queryDsl);
+        if (cachedResult == null) {
+            return null;
+        }
+
+        for (final String namespace : cachedResult.namespaces) {
+            final Long unsettledUntil = this.namespaceToUnsettledUntil.get(namespace);
+            if (unsettledUntil != null && unsettledUntil - cachedResult.searchStartNanos >= 0) {
+                this.cache.asMap().remove(queryDsl, cachedResult);
+                return null;
+            }
+        }
+
+        return copy(cachedResult.results);
+    }
+
+    /**
+     * Should be called before the search is sent, and the returned time should be given to
+     * {@link #put(String, Collection, List, long)} - so writes which race with the search make its results stale.
+     */
+    long currentTimeNanos() {
+        return this.ticker.read();
+    }
+
+    void put(final String queryDsl, final Collection<? extends AttributesMap> queryMaps,
+             final List<AttributesMap> results, final long searchStartNanos) {
+        final Set<String> namespaces = new HashSet<>();
+        queryMaps.forEach(queryMap -> namespaces.addAll(queryMap.getNamespaceMap().keySet()));
+        results.forEach(result -> namespaces.addAll(result.getNamespaceMap().keySet()));
+
+        this.cache.put(queryDsl, new CachedResult(copy(results), namespaces, searchStartNanos));
+    }
+
+    /**
+     * Makes the cached results of the given namespaces stale, along with the results of searches which are sent
+     * within a refresh interval from now.
+     */
+    void invalidate(final Collection<String> namespaces) {
+        final long unsettledUntil = this.ticker.read() + this.refreshIntervalNanos;
+        namespaces.forEach(namespace -> this.namespaceToUnsettledUntil.merge(namespace, unsettledUntil,
+                (current, updated) -> updated - current > 0 ? updated : current));
+    }
+
+    private static List<AttributesMap> copy(final List<AttributesMap> results) {
+        return results.stream()
+                .map(result -> new AttributesMap(copyMap(result.getNamespaceMap())))
+                .collect(Collectors.toList());
+    }
+
+    private static <V> Map<String, V> copyMap(final Map<String, V> map) {
+        final Map<String, V> copy = new HashMap<>();
+        map.forEach((key, value) -> copy.put(key, copyValue(value)));
+        return copy;
+    }
+
+    // The decoded values are JSON values - nested objects and arrays are copied, the rest are immutable.
+    @SuppressWarnings("unchecked")
+    private static <V> V copyValue(final V value) {
+        if (value instanceof Map) {
+            return (V) copyMap((Map<String, Object>) value);
+        }
+        if (value instanceof List) {
+            final List<Object> copy = new ArrayList<>();
+            ((List<?>) value).forEach(element -> copy.add(copyValue(element)));
+            return (V) copy;
+        }
+        return value;
+    }
+
+    private static class CachedResult {
+        private final List<AttributesMap> results;
+        private final Set<String> namespaces;
+        private final long searchStartNanos;
+
+        private CachedResult(final List<AttributesMap> results, final Set<String> namespaces,
+                             final long searchStartNanos) {
+            this.results = results;
+            this.namespaces = namespaces;
+            this.searchStartNanos = searchStartNanos;
+        }
+    }
+}
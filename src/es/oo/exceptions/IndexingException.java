@@ -7,15 +7,32 @@ import org.elasticsearch.action.bulk.BulkItemResponse;
 public class IndexingException extends RuntimeException {
     private static final String MESSAGE_FORMAT = "Indexing failure for providerId: %s, index: %s.\n Error: %s";
 
+    private final BulkItemResponse.Failure failure;
+
     public IndexingException(final Exception e) {
         super(e);
+        this.failure = null;
     }
 
     public IndexingException(final String id) {
         super("Unknown indexing error for id: " + id);
+        this.failure = null;
     }
 
     public IndexingException(final String id, final String indexName, final BulkItemResponse.Failure failure) {
         super(String.format(MESSAGE_FORMAT, id, indexName, failure));
+        this.failure = failure;
+    }
+
+    protected IndexingException(final String message, final Throwable cause) {
+        super(message, cause);
+        this.failure = null;
+    }
+
+    /**
+     * The item's failure as returned by ES, null if the item failed before ES responded for it.
+     */
+    public BulkItemResponse.Failure getFailure() {
+        return this.failure;
     }
 }
@@ -0,0 +1,13 @@
+package es.oo.exceptions;
+
+/**
+ * A sub case of {@link IndexingException} where the item wasn't accepted for indexing because the indexing
+ * buffer is full.
+ */
+public class IndexingRejectedException extends IndexingException {
+    private static final String MESSAGE_FORMAT = "Indexing rejected for id: %s, the indexing buffer is full";
+
+    public IndexingRejectedException(final String id) {
+        super(String.format(MESSAGE_FORMAT, id), null);
+    }
+}
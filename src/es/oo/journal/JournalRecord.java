@@ -0,0 +1,43 @@
+package es.oo.journal;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single write in the {@link WriteAheadJournal}.
+ */
+public class JournalRecord {
+    private final String id;
+    private final byte[] document;
+    private final JournalSegment segment;
+    private final CompletableFuture<Void> durable;
+
+    JournalRecord(final String id, final byte[] document, final JournalSegment segment,
+                  final CompletableFuture<Void> durable) {
+        this.id = id;
+        this.document = document;
+        this.segment = segment;
+        this.durable = durable;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * The written document, serialized as UTF-8 JSON.
+     */
+    public byte[] getDocument() {
+        return this.document;
+    }
+
+    /**
+     * A future which completes once the record is synced to the disk.
+     */
+    public CompletableFuture<Void> getDurable() {
+        return this.durable;
+    }
+
+    JournalSegment getSegment() {
+        return this.segment;
+    }
+}
@@ -0,0 +1,170 @@
+package es.oo.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A memory mapped file of the {@link WriteAheadJournal}.
+ *
+ * The segment is a sequence of records, each one is:
+ * 1. The payload length (int) - a zero length marks the end of the records.
+ * 2. The CRC32 of the payload (int) - a record with a wrong checksum is a torn write and marks the end as well.
+ * 3. The payload - the id length (int), the id (UTF-8) and the document.
+ */
+class JournalSegment {
+    static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private final AtomicInteger unacknowledgedRecords = new AtomicInteger();
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    private volatile boolean sealed = false;
+
+    private JournalSegment(final Path path, final long sequence, final FileChannel channel, final long size)
+            throws IOException {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    static JournalSegment create(final Path path, final long sequence, final long size) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new JournalSegment(path, sequence, channel, size);
+    }
+
+    static JournalSegment open(final Path path, final long sequence) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new JournalSegment(path, sequence, channel, channel.size());
+    }
+
+    static int recordBytes(final byte[] idBytes, final byte[] document) {
+        return RECORD_HEADER_BYTES + Integer.BYTES + idBytes.length + document.length;
+    }
+
+    long getSequence() {
+        return this.sequence;
+    }
+
+    boolean hasRoomFor(final int recordBytes) {
+        return this.buffer.remaining() >= recordBytes;
+    }
+
+    /**
+     * Appends a record. Not thread safe - the journal appends under its lock.
+     */
+    JournalRecord append(final String id, final byte[] document, final CompletableFuture<Void> durable) {
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        final int payloadLength = Integer.BYTES + idBytes.length + document.length;
+        final int recordStart = this.buffer.position();
+        final int payloadStart = recordStart + RECORD_HEADER_BYTES;
+
+        this.buffer.position(payloadStart);
+        this.buffer.putInt(idBytes.length);
+        this.buffer.put(idBytes);
+        this.buffer.put(document);
+
+        this.buffer.putInt(recordStart, payloadLength);
+        this.buffer.putInt(recordStart + Integer.BYTES, checksum(payloadStart, payloadLength));
+
+        this.unacknowledgedRecords.incrementAndGet();
+        return new JournalRecord(id, document, this, durable);
+    }
+
+    /**
+     * Reads the records of an existing segment, up to the end of the records or the first torn record.
+     * All the records which are read are counted as unacknowledged.
+     */
+    List<JournalRecord> readRecords() {
+        final List<JournalRecord> records = new ArrayList<>();
+        final CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
+
+        while (this.buffer.remaining() >= RECORD_HEADER_BYTES + Integer.BYTES) {
+            final int payloadLength = this.buffer.getInt();
+            final int recordChecksum = this.buffer.getInt();
+            final int payloadStart = this.buffer.position();
+
+            if (payloadLength < Integer.BYTES || payloadLength > this.buffer.remaining()
+                    || checksum(payloadStart, payloadLength) != recordChecksum) {
+                break;
+            }
+
+            final int idLength = this.buffer.getInt();
+            if (idLength < 0 || idLength > payloadLength - Integer.BYTES) {
+                break;
+            }
+
+            final byte[] idBytes = new byte[idLength];
+            final byte[] document = new byte[payloadLength - Integer.BYTES - idLength];
+            this.buffer.get(idBytes);
+            this.buffer.get(document);
+
+            this.unacknowledgedRecords.incrementAndGet();
+            records.add(new JournalRecord(new String(idBytes, StandardCharsets.UTF_8), document, this, durable));
+        }
+
+        return records;
+    }
+
+    private int checksum(final int offset, final int length) {
+        final ByteBuffer payload = this.buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    /**
+     * No more records are appended to a sealed segment, so it can be deleted once all its records are acknowledged.
+     */
+    void seal() {
+        this.sealed = true;
+    }
+
+    /**
+     * @return true if this was the last unacknowledged record of a sealed segment.
+     */
+    boolean acknowledge() {
+        return this.unacknowledgedRecords.decrementAndGet() == 0 && this.sealed;
+    }
+
+    boolean isDone() {
+        return this.sealed && this.unacknowledgedRecords.get() == 0;
+    }
+
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Deletes the segment file. Only the first call deletes, so a segment can be deleted from more than one path.
+     */
+    void delete() throws IOException {
+        if (this.deleted.compareAndSet(false, true)) {
+            close();
+            Files.deleteIfExists(this.path);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package es.oo.journal;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A durable journal of writes which are waiting to be indexed.
+ *
+ * Records are appended to memory mapped segment files. A background thread syncs the appended records to the disk
+ * in groups - it waits up to the fsync interval after the first unsynced record, so concurrent writers share a
+ * single sync. Once all the records of a segment are acknowledged the segment file is deleted.
+ *
+ * When the journal is opened, the records of the existing segments are recovered - they should be indexed again
+ * and acknowledged like any other record.
+ */
+public class WriteAheadJournal implements Closeable {
+    private static final String SEGMENT_FILE_FORMAT = "journal-%020d.log";
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("journal-(\\d{20})\\.log");
+
+    private static final Log log = LogFactory.getLog(WriteAheadJournal.class);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long fsyncIntervalNanos;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+
+    /**
+     * All guarded by the lock.
+     */
+    private final List<JournalSegment> unsyncedSegments = new ArrayList<>();
+    private List<CompletableFuture<Void>> pendingSyncs = new ArrayList<>();
+    private JournalSegment activeSegment;
+    private long nextSegmentSequence;
+
+    private final List<JournalRecord> recoveredRecords;
+    private final Thread syncer;
+    private volatile boolean closed = false;
+
+    private WriteAheadJournal(final Path directory, final long segmentBytes, final long fsyncIntervalMillis)
+            throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+
+        Files.createDirectories(directory);
+        this.recoveredRecords = Collections.unmodifiableList(recover());
+        this.activeSegment = createSegment(segmentBytes);
+
+        this.syncer = new Thread(this::runSyncer, "write-ahead-journal-syncer");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /**
+     * Opens the journal in the given directory, recovering the records of its existing segments.
+     *
+     * @param segmentBytes the size of a segment file.
+     * @param fsyncIntervalMillis how long a record may wait for the records appended after it, before it is synced.
+     */
+    public static WriteAheadJournal open(final Path directory, final long segmentBytes,
+                                         final long fsyncIntervalMillis) throws IOException {
+        Preconditions.checkArgument(segmentBytes > 0 && segmentBytes <= Integer.MAX_VALUE,
+                "segmentBytes must be positive and fit a memory mapped file");
+        Preconditions.checkArgument(fsyncIntervalMillis >= 0, "fsyncIntervalMillis can't be negative");
+
+        return new WriteAheadJournal(directory, segmentBytes, fsyncIntervalMillis);
+    }
+
+    /**
+     * The records which were in the journal when it was opened, in the order they were appended.
+     */
+    public List<JournalRecord> getRecoveredRecords() {
+        return this.recoveredRecords;
+    }
+
+    /**
+     * Appends a record. The record is durable once its {@link JournalRecord#getDurable()} future completes.
+     */
+    public JournalRecord append(final String id, final byte[] document) throws IOException {
+        final int recordBytes = JournalSegment.recordBytes(id.getBytes(StandardCharsets.UTF_8), document);
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        try {
+            lock.lock();
+            if (this.closed) {
+                throw new IOException("The journal is closed");
+            }
+
+            if (!this.activeSegment.hasRoomFor(recordBytes)) {
+                rollSegment(recordBytes);
+            }
+
+            final JournalRecord record = this.activeSegment.append(id, document, durable);
+
+            if (this.pendingSyncs.isEmpty()) {
+                this.syncRequested.signal();
+            }
+            this.pendingSyncs.add(durable);
+
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the record as indexed. The record's segment is deleted once all its records are acknowledged.
+     */
+    public void acknowledge(final JournalRecord record) {
+        final JournalSegment segment = record.getSegment();
+
+        if (segment.acknowledge()) {
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Syncs all the appended records and closes the journal. Segments with unacknowledged records are kept, so
+     * their records are recovered when the journal is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.lock();
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+            this.syncRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            this.syncer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sync();
+        this.activeSegment.seal();
+        if (this.activeSegment.isDone()) {
+            this.activeSegment.delete();
+        } else {
+            this.activeSegment.close();
+        }
+    }
+
+    private void runSyncer() {
+        while (!this.closed) {
+            try {
+                lock.lock();
+                while (this.pendingSyncs.isEmpty() && !this.closed) {
+                    this.syncRequested.await();
+                }
+            } catch (final InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            // Give concurrent writers a chance to join this sync.
+            if (this.fsyncIntervalNanos > 0) {
+                LockSupport.parkNanos(this, this.fsyncIntervalNanos);
+            }
+
+            sync();
+        }
+    }
+
+    /**
+     * Syncs the appended records to the disk and completes their durable futures.
+     */
+    private void sync() {
+        final List<CompletableFuture<Void>> syncs;
+        final List<JournalSegment> segments;
+
+        try {
+            lock.lock();
+            syncs = this.pendingSyncs;
+            this.pendingSyncs = new ArrayList<>();
+
+            segments = new ArrayList<>(this.unsyncedSegments);
+            segments.add(this.activeSegment);
+            this.unsyncedSegments.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        // Forcing a mapped buffer while records are appended to it is safe - a record which is only partially
+        // synced fails its checksum on recovery, and it is synced again with the next group anyway.
+        RuntimeException failure = null;
+        for (final JournalSegment segment : segments) {
+            try {
+                segment.force();
+            } catch (final RuntimeException e) {
+                log.error(e);
+                failure = e;
+            }
+        }
+
+        for (final CompletableFuture<Void> durable : syncs) {
+            if (failure != null) {
+                durable.completeExceptionally(failure);
+            } else {
+                durable.complete(null);
+            }
+        }
+
+        for (final JournalSegment segment : segments) {
+            if (segment.isDone()) {
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    /**
+     * Seals the active segment and creates a new one. Should be called under the lock.
+     */
+    private void rollSegment(final int recordBytes) throws IOException {
+        final JournalSegment sealedSegment = this.activeSegment;
+        sealedSegment.seal();
+
+        // The sealed segment should be synced with its pending records, before it can be deleted.
+        this.unsyncedSegments.add(sealedSegment);
+        this.activeSegment = createSegment(Math.max(this.segmentBytes, recordBytes));
+    }
+
+    private JournalSegment createSegment(final long size) throws IOException {
+        final long sequence = this.nextSegmentSequence++;
+        return JournalSegment.create(this.directory.resolve(String.format(SEGMENT_FILE_FORMAT, sequence)),
+                sequence, size);
+    }
+
+    private void deleteSegment(final JournalSegment segment) {
+        try {
+            segment.delete();
+        } catch (final IOException e) {
+            log.error(e);
+        }
+    }
+
+    /**
+     * Reads the records of the existing segments, oldest segment first.
+     */
+    private List<JournalRecord> recover() throws IOException {
+        final List<JournalSegment> segments = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.list(this.directory)) {
+            for (final Path path : (Iterable<Path>) paths::iterator) {
+                final Matcher matcher = SEGMENT_FILE_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(JournalSegment.open(path, Long.parseLong(matcher.group(1))));
+                }
+            }
+        }
+
+        segments.sort(Comparator.comparingLong(JournalSegment::getSequence));
+
+        final List<JournalRecord> records = new ArrayList<>();
+        for (final JournalSegment segment : segments) {
+            records.addAll(segment.readRecords());
+            segment.seal();
+
+            if (segment.isDone()) {
+                segment.delete();
+            }
+
+            this.nextSegmentSequence = segment.getSequence() + 1;
+        }
+
+        return records;
+    }
+}
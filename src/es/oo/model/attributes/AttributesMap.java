@@ -42,6 +42,48 @@ public class AttributesMap implements Serializable {
         return OBJECT_MAPPER.convertValue(this.getNamespaceMap().get(tClass.getSimpleName()), tClass);
     }
 
+    /**
+     * Returns a deep merge of this attributes map and the given one. When both maps have the same attribute the
+     * value of the given map wins, unless both values are maps - then they are merged as well.
+     */
+    public AttributesMap merge(final AttributesMap other) {
+        final Map<String, Map<String, Object>> mergedNamespaceMap = new HashMap<>();
+
+        for (final Map.Entry<String, Map<String, Object>> namespaceEntry: this.getNamespaceMap().entrySet()) {
+            mergedNamespaceMap.put(namespaceEntry.getKey(), new HashMap<>(namespaceEntry.getValue()));
+        }
+
+        for (final Map.Entry<String, Map<String, Object>> namespaceEntry: other.getNamespaceMap().entrySet()) {
+            final Map<String, Object> attributesMap =
+                    mergedNamespaceMap.computeIfAbsent(namespaceEntry.getKey(), namespace -> new HashMap<>());
+            mergeAttributes(attributesMap, namespaceEntry.getValue());
+        }
+
+        return new AttributesMap(mergedNamespaceMap);
+    }
+
+    private static void mergeAttributes(final Map<String, Object> target, final Map<String, Object> source) {
+        for (final Map.Entry<String, Object> attributeEntry: source.entrySet()) {
+            final Object targetValue = target.get(attributeEntry.getKey());
+            final Object sourceValue = attributeEntry.getValue();
+
+            if (targetValue instanceof Map && sourceValue instanceof Map) {
+                // Nested attributes are JSON objects, so their keys are always strings.
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> targetAttributes = (Map<String, Object>) targetValue;
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> sourceAttributes = (Map<String, Object>) sourceValue;
+
+                final Map<String, Object> mergedValue = new HashMap<>(targetAttributes);
+                mergeAttributes(mergedValue, sourceAttributes);
+                target.put(attributeEntry.getKey(), mergedValue);
+                continue;
+            }
+
+            target.put(attributeEntry.getKey(), sourceValue);
+        }
+    }
+
     /**
      * A list of objects which you want to index or search.
      */
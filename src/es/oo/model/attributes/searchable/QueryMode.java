@@ -0,0 +1,20 @@
+package es.oo.model.attributes.searchable;
+
+/**
+ * How the attributes of a searchable object are matched.
+ */
+public enum QueryMode {
+    /**
+     * Every attribute is a scored {@code match} query, so text attributes are analyzed and hits are ranked by
+     * relevance.
+     */
+    MATCH,
+
+    /**
+     * Every attribute is an exact {@code term} query in filter context, and the nested query doesn't score its
+     * hits. Text attributes are matched against their {@code .keyword} sub field, so a value must equal the
+     * indexed value as is. Filters are cheaper than scored queries and are cached by Elasticsearch, which suits
+     * lookups by ids, enums and other exact values.
+     */
+    FILTER
+}
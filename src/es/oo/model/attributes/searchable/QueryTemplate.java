@@ -0,0 +1,89 @@
+package es.oo.model.attributes.searchable;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query DSL which was rendered once with placeholders instead of its values.
+ *
+ * All the queries of the same shape - the same namespaces and attribute paths, in the same order - differ only in
+ * their values, so a query is built by writing its values between the fragments of the rendered DSL.
+ */
+class QueryTemplate {
+    private static final String PLACEHOLDER_FORMAT = "@@slot:%d@@";
+    private static final String NON_TEXT_PLACEHOLDER_FORMAT = "@@slot:%d:value@@";
+    private static final String PLACEHOLDER_PREFIX = "@@slot:";
+    private static final String NON_TEXT_PLACEHOLDER_SUFFIX = ":value@@";
+    private static final Pattern QUOTED_PLACEHOLDER = Pattern.compile("\"@@slot:(\\d+)(?::value)?@@\"");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final List<String> fragments;
+    private final int[] slots;
+
+    private QueryTemplate(final List<String> fragments, final int[] slots) {
+        this.fragments = fragments;
+        this.slots = slots;
+    }
+
+    /**
+     * The value which marks the given slot when the template is rendered.
+     *
+     * @param text whether the slot is bound to text values. Placeholders are always strings, so the placeholders
+     *             of other values are marked - the query of a slot may depend on the type of its values.
+     */
+    static String placeholder(final int slot, final boolean text) {
+        return String.format(text ? PLACEHOLDER_FORMAT : NON_TEXT_PLACEHOLDER_FORMAT, slot);
+    }
+
+    /**
+     * @return whether the value is text, or the placeholder of a text slot.
+     */
+    static boolean isText(final Object value) {
+        if (!(value instanceof String)) {
+            return false;
+        }
+
+        final String text = (String) value;
+        return !(text.startsWith(PLACEHOLDER_PREFIX) && text.endsWith(NON_TEXT_PLACEHOLDER_SUFFIX));
+    }
+
+    /**
+     * Compiles a DSL which was rendered with {@link #placeholder(int, boolean)} values.
+     */
+    static QueryTemplate compile(final String renderedDsl) {
+        final List<String> fragments = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+
+        final Matcher matcher = QUOTED_PLACEHOLDER.matcher(renderedDsl);
+        int fragmentStart = 0;
+        while (matcher.find()) {
+            fragments.add(renderedDsl.substring(fragmentStart, matcher.start()));
+            slots.add(Integer.parseInt(matcher.group(1)));
+            fragmentStart = matcher.end();
+        }
+        fragments.add(renderedDsl.substring(fragmentStart));
+
+        return new QueryTemplate(fragments, slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Builds the DSL of the given values, in the order of their slots.
+     */
+    String bind(final List<Object> values) throws JsonProcessingException {
+        final StringBuilder dsl = new StringBuilder();
+
+        for (int i = 0; i < this.slots.length; i++) {
+            dsl.append(this.fragments.get(i));
+            dsl.append(OBJECT_MAPPER.writeValueAsString(values.get(this.slots[i])));
+        }
+        dsl.append(this.fragments.get(this.slots.length));
+
+        return dsl.toString();
+    }
+}
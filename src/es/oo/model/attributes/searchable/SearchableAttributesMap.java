@@ -4,9 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import es.oo.model.attributes.AttributesMap;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +21,13 @@ import java.util.Map;
  * https://w.amazon.com/bin/view/FlexPlatform/Internal/AccountManagement/Documentation/ProviderSearchSystem/PAS-To-PSS/
  */
 public class SearchableAttributesMap extends AttributesMap {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * The sub field which the dynamic mapping adds to every text field, indexed as is.
+     */
+    private static final String KEYWORD_FIELD = ".keyword";
+
     public SearchableAttributesMap(final Map<String, Map<String, Object>> namespaceMap) {
         super(namespaceMap);
     }
@@ -29,21 +40,136 @@ public class SearchableAttributesMap extends AttributesMap {
     }
 
     public BoolQueryBuilder toQueryBuilder() {
+        return toQueryBuilder(QueryMode.MATCH);
+    }
+
+    public BoolQueryBuilder toQueryBuilder(final QueryMode queryMode) {
         final BoolQueryBuilder queryBuilder = new BoolQueryBuilder();
 
         for (final String namespace: this.getNamespaceMap().keySet()) {
             final Map<String, Object> attributesMap = this.getNamespaceMap().get(namespace);
 
             final String fullNamespace = AttributesMap.NAMESPACE_MAP + "." + namespace;
-            populateTerms(queryBuilder, fullNamespace, attributesMap);
+            populateTerms(queryBuilder, fullNamespace, attributesMap, queryMode);
         }
 
         return queryBuilder;
     }
 
+    /**
+     * Appends the shape of this map's query to the given shape, and its values to the given values - in the order
+     * {@link #toQueryBuilder(QueryMode)} adds them to the query. Text values have their own shape, since the
+     * {@link QueryMode#FILTER} query of a text value is on another field.
+     */
+    void appendShape(final StringBuilder shape, final List<Object> values) {
+        for (final String namespace: this.getNamespaceMap().keySet()) {
+            final String fullNamespace = AttributesMap.NAMESPACE_MAP + "." + namespace;
+
+            shape.append('{');
+            appendShape(shape, values, fullNamespace, this.getNamespaceMap().get(namespace));
+            shape.append('}');
+        }
+    }
+
+    /**
+     * Returns a copy of this map which has the same query shape, with {@link QueryTemplate#placeholder(int, boolean)}
+     * values instead of its values.
+     *
+     * @param nextSlot the slot of the first value, advanced past the slots of this map.
+     */
+    SearchableAttributesMap toPlaceholderMap(final int[] nextSlot) {
+        final Map<String, Map<String, Object>> placeholderNamespaceMap = new LinkedHashMap<>();
+
+        for (final String namespace: this.getNamespaceMap().keySet()) {
+            placeholderNamespaceMap.put(namespace, toPlaceholders(this.getNamespaceMap().get(namespace), nextSlot));
+        }
+
+        return new SearchableAttributesMap(placeholderNamespaceMap);
+    }
+
+    // Both walks below follow populateTerms exactly - a query and its template must have the same shape.
+    private static void appendShape(final StringBuilder shape,
+                                    final List<Object> values,
+                                    final String namespace,
+                                    final Map<?, ?> attributesMap) {
+        for (final Map.Entry<?, ?> attributeEntry: attributesMap.entrySet()) {
+            final String qdslPath = namespace + "." + attributeEntry.getKey();
+            final Object attributeValue = attributeEntry.getValue();
+
+            if (attributeValue == null) {
+                shape.append("null");
+                return;
+            }
+
+            if (attributeValue instanceof Map) {
+                shape.append('{');
+                appendShape(shape, values, qdslPath, (Map<?, ?>) attributeValue);
+                shape.append('}');
+                continue;
+            }
+
+            if (attributeValue instanceof Collection) {
+                shape.append('[');
+                for (final Object object: (Collection<?>) attributeValue) {
+                    shape.append('{');
+                    appendShape(shape, values, qdslPath, OBJECT_MAPPER.convertValue(object, Map.class));
+                    shape.append('}');
+                }
+                shape.append(']');
+                continue;
+            }
+
+            shape.append(qdslPath).append(attributeValue instanceof String ? ":text;" : ";");
+            values.add(attributeValue);
+        }
+    }
+
+    private static Map<String, Object> toPlaceholders(final Map<String, Object> attributesMap, final int[] nextSlot) {
+        final Map<String, Object> placeholders = new LinkedHashMap<>();
+
+        for (final Map.Entry<String, Object> attributeEntry: attributesMap.entrySet()) {
+            final Object attributeValue = attributeEntry.getValue();
+
+            if (attributeValue == null) {
+                placeholders.put(attributeEntry.getKey(), null);
+                return placeholders;
+            }
+
+            if (attributeValue instanceof Map) {
+                placeholders.put(attributeEntry.getKey(),
+                        toPlaceholders(asAttributesMap(attributeValue), nextSlot));
+                continue;
+            }
+
+            if (attributeValue instanceof Collection) {
+                final List<Object> collectionPlaceholders = new ArrayList<>();
+                for (final Object object: (Collection<?>) attributeValue) {
+                    collectionPlaceholders.add(toPlaceholders(
+                            asAttributesMap(OBJECT_MAPPER.convertValue(object, Map.class)), nextSlot));
+                }
+                placeholders.put(attributeEntry.getKey(), collectionPlaceholders);
+                continue;
+            }
+
+            placeholders.put(attributeEntry.getKey(),
+                    QueryTemplate.placeholder(nextSlot[0]++, attributeValue instanceof String));
+        }
+
+        return placeholders;
+    }
+
+    /**
+     * Attribute maps, and the maps Jackson converts objects to, are always keyed by the attribute names.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asAttributesMap(final Object attributeValue) {
+        return (Map<String, Object>) attributeValue;
+    }
+
     private void populateTerms(final BoolQueryBuilder queryBuilder,
                                final String namespace,
-                               final Map<String, Object> attributesMap) {
+                               final Map<String, Object> attributesMap,
+                               final QueryMode queryMode) {
         // Read this method carefully - god is in the details.
         // When we look at an attribute and we want to convert it to a dsl query, then we need to
         // interpret it properties a bit different then they are being interpreted by the AttributeMap object.
@@ -65,7 +191,7 @@ public class SearchableAttributesMap extends AttributesMap {
             // The following achieves that.
             if (attributeValue instanceof Map) {
                 final Map<String, Object> mapValue = (Map<String, Object>) attributeValue;
-                populateTerms(queryBuilder, qdslPath, mapValue);
+                populateTerms(queryBuilder, qdslPath, mapValue, queryMode);
                 continue;
             }
 
@@ -81,18 +207,41 @@ public class SearchableAttributesMap extends AttributesMap {
                     final ObjectMapper mapper = new ObjectMapper();
                     final Map<String, Object> objectProperties = mapper.convertValue(object, Map.class);
                     final BoolQueryBuilder objectInCollectionQueryBuilder = new BoolQueryBuilder();
-                    populateTerms(objectInCollectionQueryBuilder, qdslPath, objectProperties);
+                    populateTerms(objectInCollectionQueryBuilder, qdslPath, objectProperties, queryMode);
                     collectionQueryBuilder.should(objectInCollectionQueryBuilder);
                 }
 
-                queryBuilder.must().add(collectionQueryBuilder);
+                addClause(queryBuilder, collectionQueryBuilder, queryMode);
 
                 continue;
             }
 
-            final MatchQueryBuilder matchQueryBuilder = new MatchQueryBuilder(qdslPath, attributeValue);
+            addClause(queryBuilder, toLeafQueryBuilder(qdslPath, attributeValue, queryMode), queryMode);
+        }
+    }
+
+    private static QueryBuilder toLeafQueryBuilder(final String qdslPath,
+                                                   final Object attributeValue,
+                                                   final QueryMode queryMode) {
+        if (queryMode == QueryMode.FILTER) {
+            final String termPath = QueryTemplate.isText(attributeValue) ? qdslPath + KEYWORD_FIELD : qdslPath;
+            return new TermQueryBuilder(termPath, attributeValue);
+        }
+
+        return new MatchQueryBuilder(qdslPath, attributeValue);
+    }
 
-            queryBuilder.must().add(matchQueryBuilder);
+    /**
+     * Scored clauses must match, filter clauses only filter - a bool query nested in a filter clause is in filter
+     * context as well, so its should clauses aren't scored either.
+     */
+    private static void addClause(final BoolQueryBuilder queryBuilder,
+                                  final QueryBuilder clause,
+                                  final QueryMode queryMode) {
+        if (queryMode == QueryMode.FILTER) {
+            queryBuilder.filter(clause);
+        } else {
+            queryBuilder.must().add(clause);
         }
     }
 }
\ No newline at end of file
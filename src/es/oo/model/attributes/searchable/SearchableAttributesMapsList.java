@@ -1,5 +1,9 @@
 package es.oo.model.attributes.searchable;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import es.oo.model.attributes.AttributesMap;
 import es.oo.model.attributes.AttributesMapsList;
 import org.apache.lucene.search.join.ScoreMode;
@@ -9,6 +13,7 @@ import org.elasticsearch.index.query.NestedQueryBuilder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -16,6 +21,17 @@ import java.util.List;
  * Each Item list will be converted to a AND phrase using {@link SearchableAttributesMap}.
  */
 public class SearchableAttributesMapsList extends ArrayList<SearchableAttributesMap> {
+    private static final int MAX_QUERY_TEMPLATES = 1000;
+
+    /**
+     * Query templates by the shape of their queries - see {@link SearchableAttributesMap#appendShape}.
+     */
+    private static final Cache<String, QueryTemplate> QUERY_TEMPLATES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_QUERY_TEMPLATES)
+            .build();
+
+    private SearchableAttributesMapsList() {
+    }
 
     public SearchableAttributesMapsList(final List<List<Object>> objectsLists)
             throws IOException, IllegalAccessException {
@@ -30,17 +46,70 @@ public class SearchableAttributesMapsList extends ArrayList<SearchableAttributes
         }
     }
 
+    /**
+     * Builds the query DSL by binding the values of this list into the template of its shape. The template is
+     * rendered on the first query of every shape.
+     */
     public String toDslQueryString() {
+        return toDslQueryString(QueryMode.MATCH);
+    }
+
+    public String toDslQueryString(final QueryMode queryMode) {
+        final StringBuilder shape = new StringBuilder(queryMode.name());
+        final List<Object> values = new ArrayList<>();
+
+        for (final SearchableAttributesMap searchableAttributesMap: this) {
+            shape.append('|');
+            searchableAttributesMap.appendShape(shape, values);
+        }
+
+        try {
+            final QueryTemplate queryTemplate = QUERY_TEMPLATES.get(shape.toString(),
+                    () -> QueryTemplate.compile(toPlaceholderList().renderDslQueryString(queryMode)));
+            return queryTemplate.bind(values);
+        } catch (final ExecutionException | UncheckedExecutionException | JsonProcessingException e) {
+            return renderDslQueryString(queryMode);
+        }
+    }
+
+    /**
+     * Builds the query DSL from the query builders, without a template.
+     */
+    String renderDslQueryString(final QueryMode queryMode) {
+        return "{ \"query\": " + toQueryBuilder(queryMode).toString() + " }";
+    }
+
+    private SearchableAttributesMapsList toPlaceholderList() {
+        final SearchableAttributesMapsList placeholderList = new SearchableAttributesMapsList();
+        final int[] nextSlot = new int[] { 0 };
+
+        for (final SearchableAttributesMap searchableAttributesMap: this) {
+            placeholderList.add(searchableAttributesMap.toPlaceholderMap(nextSlot));
+        }
+
+        return placeholderList;
+    }
+
+    public NestedQueryBuilder toQueryBuilder() {
+        return toQueryBuilder(QueryMode.MATCH);
+    }
+
+    /**
+     * In {@link QueryMode#FILTER} the OR phrase is wrapped in a filter clause, so none of the nested query is scored.
+     */
+    public NestedQueryBuilder toQueryBuilder(final QueryMode queryMode) {
         final BoolQueryBuilder booleanQueryBuilder = new BoolQueryBuilder();
 
         for (final SearchableAttributesMap searchableAttributesMap: this) {
-            final BoolQueryBuilder singleObjectQueryBuilder = searchableAttributesMap.toQueryBuilder();
+            final BoolQueryBuilder singleObjectQueryBuilder = searchableAttributesMap.toQueryBuilder(queryMode);
             booleanQueryBuilder.should().add(singleObjectQueryBuilder);
         }
 
-        final NestedQueryBuilder nestedQueryBuilder = new NestedQueryBuilder(AttributesMap.NAMESPACE_MAP,
-                booleanQueryBuilder, ScoreMode.Max);
+        if (queryMode == QueryMode.FILTER) {
+            return new NestedQueryBuilder(AttributesMap.NAMESPACE_MAP,
+                    new BoolQueryBuilder().filter(booleanQueryBuilder), ScoreMode.None);
+        }
 
-        return "{ \"query\": " + nestedQueryBuilder.toString() + " }";
+        return new NestedQueryBuilder(AttributesMap.NAMESPACE_MAP, booleanQueryBuilder, ScoreMode.Max);
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package es.oo.endpoint;
+
+import es.oo.model.attributes.SomeObject;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link Aggregation}.
+ */
+public class AggregationTest {
+
+    /**
+     * Test {@link Aggregation#terms(Class, String)} for a text attribute, a text map value and a text collection -
+     * they should be bucketed on their keyword sub field.
+     */
+    @Test
+    public void terms_TextAttribute() {
+        Assert.assertEquals("namespaceMap.SomeObject.someString.keyword",
+                Aggregation.terms(SomeObject.class, "someString").getField());
+        Assert.assertEquals("namespaceMap.SomeObject.valuesMap.key.keyword",
+                Aggregation.terms(SomeObject.class, "valuesMap.key").getField());
+        Assert.assertEquals("namespaceMap.SomeObject.valuesList.keyword",
+                Aggregation.cardinality(SomeObject.class, "valuesList").getField());
+    }
+
+    /**
+     * Test {@link Aggregation#terms(Class, String)} for a numeric attribute - it should be bucketed on its own
+     * field.
+     */
+    @Test
+    public void terms_NumericAttribute() {
+        Assert.assertEquals("namespaceMap.SomeObject.someInt",
+                Aggregation.terms(SomeObject.class, "someInt").getField());
+    }
+
+    /**
+     * Test the metric and histogram aggregations - they are never on the keyword sub field.
+     */
+    @Test
+    public void metrics_OwnField() {
+        Assert.assertEquals("namespaceMap.SomeObject.someInt", Aggregation.avg(SomeObject.class, "someInt").getField());
+        Assert.assertEquals("namespaceMap.SomeObject.someInt",
+                Aggregation.histogram(SomeObject.class, "someInt", 10).getField());
+        Assert.assertEquals("namespaceMap.SomeObject.someInt",
+                Aggregation.dateHistogram(SomeObject.class, "someInt", DateHistogramInterval.DAY).getField());
+    }
+
+    /**
+     * Test {@link Aggregation#terms(Class, String)} for a path which isn't an attribute of the class.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void terms_UnknownAttribute() {
+        Aggregation.terms(SomeObject.class, "someMissingAttribute");
+    }
+}
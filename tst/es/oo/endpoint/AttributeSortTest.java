@@ -0,0 +1,48 @@
+package es.oo.endpoint;
+
+import com.google.common.collect.ImmutableMap;
+import es.oo.model.attributes.SomeObject;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link AttributeSort}.
+ */
+public class AttributeSortTest {
+
+    /**
+     * Test {@link AttributeSort#descending(Class, String)} for a text attribute - it should be sorted by its
+     * keyword sub field, in a nested sort.
+     */
+    @Test
+    public void descending_TextAttribute() {
+        final AttributeSort unitForTest = AttributeSort.descending(SomeObject.class, "someString");
+
+        Assert.assertEquals("namespaceMap.SomeObject.someString.keyword", unitForTest.getField());
+        Assert.assertEquals(SortOrder.DESC, unitForTest.getOrder());
+        Assert.assertEquals(ImmutableMap.of("namespaceMap.SomeObject.someString.keyword", ImmutableMap.of(
+                "order", "desc",
+                "nested", ImmutableMap.of("path", "namespaceMap"))), unitForTest.toSortField());
+    }
+
+    /**
+     * Test {@link AttributeSort#ascending(Class, String)} for a numeric attribute - it should be sorted by its
+     * own field.
+     */
+    @Test
+    public void ascending_NumericAttribute() {
+        final AttributeSort unitForTest = AttributeSort.ascending(SomeObject.class, "someInt");
+
+        Assert.assertEquals("namespaceMap.SomeObject.someInt", unitForTest.getField());
+        Assert.assertEquals(SortOrder.ASC, unitForTest.getOrder());
+    }
+
+    /**
+     * Test {@link AttributeSort#ascending(Class, String)} for a path which isn't an attribute of the class.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void ascending_UnknownAttribute() {
+        AttributeSort.ascending(SomeObject.class, "someMissingAttribute");
+    }
+}
@@ -0,0 +1,55 @@
+package es.oo.endpoint;
+
+import es.oo.model.attributes.AttributesMap;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Test class for {@link BulkEncoder}.
+ */
+public class BulkEncoderTest {
+    private final static String INDEX_NAME = "entities";
+    private final static String TYPE_NAME = "attributes";
+
+    /**
+     * Test {@link BulkEncoder#encode(java.util.List)} - every item should be encoded as an upsert.
+     */
+    @Test
+    public void encode_MultipleItems() throws IOException {
+        final BulkEncoder unitForTest = new BulkEncoder(INDEX_NAME, TYPE_NAME, 1, Long.MAX_VALUE);
+
+        final BulkEncoder.BulkBuffer bulkBody = unitForTest.encode(Arrays.asList(
+                new PendingItem("1", new AttributesMap(), "{\"a\":1}".getBytes()),
+                new PendingItem("2\"", new AttributesMap(), "{\"b\":2}".getBytes())));
+
+        final String expectedBulkBody =
+                "{\"update\":{\"_index\":\"entities\",\"_type\":\"attributes\",\"_id\":\"1\"}}\n" +
+                "{\"doc\":{\"a\":1},\"doc_as_upsert\":true}\n" +
+                "{\"update\":{\"_index\":\"entities\",\"_type\":\"attributes\",\"_id\":\"2\\\"\"}}\n" +
+                "{\"doc\":{\"b\":2},\"doc_as_upsert\":true}\n";
+        Assert.assertEquals(expectedBulkBody, EntityUtils.toString(bulkBody.toEntity()));
+        Assert.assertEquals(BulkEncoder.NDJSON_CONTENT_TYPE.getMimeType(),
+                bulkBody.toEntity().getContentType().getValue());
+    }
+
+    /**
+     * Test {@link BulkEncoder#release(BulkEncoder.BulkBuffer)} - a released buffer should be reused empty.
+     */
+    @Test
+    public void release_BufferReused() throws IOException {
+        final BulkEncoder unitForTest = new BulkEncoder(INDEX_NAME, TYPE_NAME, 1, Long.MAX_VALUE);
+        final PendingItem pendingItem = new PendingItem("1", new AttributesMap(), "{}".getBytes());
+
+        final BulkEncoder.BulkBuffer firstBulkBody = unitForTest.encode(Arrays.asList(pendingItem));
+        final int firstBulkSize = firstBulkBody.size();
+        unitForTest.release(firstBulkBody);
+        final BulkEncoder.BulkBuffer secondBulkBody = unitForTest.encode(Arrays.asList(pendingItem));
+
+        Assert.assertSame(firstBulkBody, secondBulkBody);
+        Assert.assertEquals(firstBulkSize, secondBulkBody.size());
+    }
+}
@@ -1,30 +1,53 @@
 package es.oo.endpoint;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import es.oo.exceptions.IndexingException;
+import es.oo.exceptions.IndexingRejectedException;
 import es.oo.exceptions.InternalServiceException;
+import es.oo.journal.WriteAheadJournal;
+import es.oo.model.attributes.AttributesMap;
+import es.oo.model.attributes.AttributesMapsList;
+import es.oo.model.attributes.SomeObject;
+import es.oo.model.attributes.searchable.SearchableAttributesMapsList;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.index.shard.ShardId;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 import java.util.List;
@@ -36,6 +59,9 @@ public class ElasticSearchProxyTest {
     private final static String ID = "12345";
     private final static String VALUE_STRING = "Value";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Test {@link ElasticSearchProxy} constructor for a null {@link RestHighLevelClient} input.
      */
@@ -53,7 +79,7 @@ public class ElasticSearchProxyTest {
         final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
         final RestClient restClient = Mockito.mock(RestClient.class);
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenThrow(new IOException());
+        mockBulkFailure(highLevelRestClient, new IOException());
 
         final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
         unitForTest.writeItem(ID, VALUE_STRING);
@@ -70,11 +96,12 @@ public class ElasticSearchProxyTest {
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
 
         final BulkResponse bulkResponse = Mockito.mock(BulkResponse.class);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenReturn(bulkResponse);
+        mockBulkResponse(highLevelRestClient, bulkResponse);
 
         final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient) {
             @Override
-            protected BulkItemResponse getItemFromBulkResponse(String id) {
+            protected BulkItemResponse getItemFromBulkResponse(final Map<String, BulkItemResponse> bulkResult,
+                                                               final String id) {
                 return createBulkItemResponse(id);
             }
         };
@@ -95,7 +122,7 @@ public class ElasticSearchProxyTest {
 
         final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient) {
             @Override
-            protected String serializedItem(Object item) {
+            protected byte[] serializedItem(Object item) {
                 throw new RuntimeException();
             }
         };
@@ -121,6 +148,253 @@ public class ElasticSearchProxyTest {
         unitForTest.writeItem(ID, VALUE_STRING);
     }
 
+    /**
+     * Test {@link ElasticSearchProxy#writeItemAsync(String, Object)} - the returned future should be completed with
+     * the item's own bulk item response.
+     */
+    @Test
+    public void writeItemAsync_CompletedWithItemResponse()
+            throws IOException, ExecutionException, InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
+        final CompletableFuture<BulkItemResponse> result = unitForTest.writeItemAsync(ID, VALUE_STRING);
+
+        Assert.assertEquals(ID, result.get().getId());
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItemAsync(String, Object)} for a case the bulk has no response for the
+     * item - the returned future should be completed exceptionally.
+     */
+    @Test
+    public void writeItemAsync_MissingItemResponse() throws IOException, InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
+        final CompletableFuture<BulkItemResponse> result = unitForTest.writeItemAsync("otherId", VALUE_STRING);
+
+        try {
+            result.get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IndexingException);
+        }
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case the bulk is full - the bulk should be
+     * flushed right away and not wait for the linger time.
+     */
+    @Test(timeout = 5000)
+    public void writeToTarget_MaxActionsReached() throws IOException, IndexingException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxActions(1)
+                .withMaxLingerMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        unitForTest.writeItem(ID, VALUE_STRING);
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case the bulk is too big - the bulk should be
+     * flushed right away and not wait for the linger time.
+     */
+    @Test(timeout = 5000)
+    public void writeToTarget_MaxBytesReached() throws IOException, IndexingException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxBytes(1)
+                .withMaxLingerMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        unitForTest.writeItem(ID, VALUE_STRING);
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItemAsync(String, Object)} for a case the buffer is full and the
+     * backpressure policy is {@link BackpressurePolicy#FAIL_FAST} - the write should be rejected.
+     */
+    @Test
+    public void writeItemAsync_BufferFull_FailFast() throws InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        // The bulk is never answered, so the first item keeps its room in the buffer.
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxBufferedActions(1)
+                .withBackpressurePolicy(BackpressurePolicy.FAIL_FAST)
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        final CompletableFuture<BulkItemResponse> firstResult = unitForTest.writeItemAsync(ID, VALUE_STRING);
+        final CompletableFuture<BulkItemResponse> secondResult = unitForTest.writeItemAsync("otherId", VALUE_STRING);
+
+        Assert.assertFalse(firstResult.isDone());
+        try {
+            secondResult.get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IndexingRejectedException);
+        }
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case there are more bulks than the allowed
+     * in flight bulks - all the writes should be done.
+     */
+    @Test(timeout = 5000)
+    public void writeToTarget_MaxInFlightBulksReached()
+            throws IOException, ExecutionException, InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxActions(1)
+                .withMaxInFlightBulks(1)
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config) {
+            @Override
+            protected BulkItemResponse getItemFromBulkResponse(final Map<String, BulkItemResponse> bulkResult,
+                                                               final String id) {
+                return createBulkItemResponse(id);
+            }
+        };
+
+        final List<CompletableFuture<BulkItemResponse>> futuresList = new ArrayList<>();
+        for (Integer itemIndex = 0; itemIndex < 10; itemIndex++) {
+            futuresList.add(unitForTest.writeItemAsync(itemIndex.toString(), VALUE_STRING));
+        }
+
+        for (final CompletableFuture<BulkItemResponse> future : futuresList) {
+            Assert.assertFalse(future.get().isFailed());
+        }
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case the item is rejected by elastic search
+     * because the cluster is overloaded - the item should be sent again and succeed.
+     */
+    @Test(timeout = 5000)
+    public void writeToTarget_ItemRejected_Retried() throws IOException, IndexingException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final BulkItemResponse rejectedItemResponse = new BulkItemResponse(1, DocWriteRequest.OpType.UPDATE,
+                new BulkItemResponse.Failure("Index", "Type", ID, new EsRejectedExecutionException()));
+        final AtomicInteger bulkCounter = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            final BulkItemResponse bulkItemResponse =
+                    bulkCounter.incrementAndGet() == 1 ? rejectedItemResponse : createBulkItemResponse(ID);
+            listener.onResponse(new BulkResponse(new BulkItemResponse[] { bulkItemResponse }, 1));
+            return null;
+        }).when(highLevelRestClient).bulkAsync(Mockito.any(), Mockito.any());
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withRetryPolicy(RetryPolicy.createBuilder().withInitialBackoffMillis(1).build())
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        unitForTest.writeItem(ID, VALUE_STRING);
+
+        Assert.assertEquals(2, bulkCounter.get());
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItemAsync(String, Object)} for a newer write to an id whose item waits for
+     * a retry - the newer write should be held back until the retry is done, so the retry doesn't overwrite it.
+     */
+    @Test(timeout = 5000)
+    public void writeItemAsync_RetryRacesNewerWrite_WritesInOrder()
+            throws IOException, InterruptedException, ExecutionException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final BulkItemResponse rejectedItemResponse = new BulkItemResponse(1, DocWriteRequest.OpType.UPDATE,
+                new BulkItemResponse.Failure("Index", "Type", ID, new EsRejectedExecutionException()));
+        final List<String> bulkBodies = Collections.synchronizedList(new ArrayList<>());
+        Mockito.doAnswer(invocation -> {
+            bulkBodies.add(EntityUtils.toString((HttpEntity) invocation.getArguments()[0]));
+            @SuppressWarnings("unchecked")
+            final ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            final BulkItemResponse bulkItemResponse =
+                    bulkBodies.size() == 1 ? rejectedItemResponse : createBulkItemResponse(ID);
+            listener.onResponse(new BulkResponse(new BulkItemResponse[] { bulkItemResponse }, 1));
+            return null;
+        }).when(highLevelRestClient).bulkAsync(Mockito.any(), Mockito.any());
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxLingerMillis(1)
+                .withRetryPolicy(RetryPolicy.createBuilder().withInitialBackoffMillis(200).build())
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        final CompletableFuture<BulkItemResponse> olderResult = unitForTest.writeItemAsync(ID, "older");
+        while (bulkBodies.isEmpty()) {
+            Thread.sleep(1);
+        }
+        final CompletableFuture<BulkItemResponse> newerResult = unitForTest.writeItemAsync(ID, "newer");
+
+        olderResult.get();
+        newerResult.get();
+
+        Assert.assertEquals(3, bulkBodies.size());
+        Assert.assertTrue(bulkBodies.get(0).contains("older"));
+        Assert.assertTrue(bulkBodies.get(1).contains("older"));
+        Assert.assertTrue(bulkBodies.get(2).contains("newer"));
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case the item is rejected by elastic search
+     * and there are no retries left - the write should fail.
+     */
+    @Test(expected = IndexingException.class, timeout = 5000)
+    public void writeToTarget_ItemRejected_NoRetries() throws IOException, IndexingException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final BulkItemResponse rejectedItemResponse = new BulkItemResponse(1, DocWriteRequest.OpType.UPDATE,
+                new BulkItemResponse.Failure("Index", "Type", ID, new EsRejectedExecutionException()));
+        mockBulkResponse(highLevelRestClient, new BulkResponse(new BulkItemResponse[] { rejectedItemResponse }, 1));
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withRetryPolicy(RetryPolicy.noRetries())
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        unitForTest.writeItem(ID, VALUE_STRING);
+    }
+
     /**
      * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case many threads tries to write to
      * the same instance of the {@link ElasticSearchProxy} at a single point in time.
@@ -132,11 +406,12 @@ public class ElasticSearchProxyTest {
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
 
         final BulkResponse bulkResponse = createBulkResponseExpectations(highLevelRestClient, ID);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenReturn(bulkResponse);
+        mockBulkResponse(highLevelRestClient, bulkResponse);
 
         final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient) {
             @Override
-            protected BulkItemResponse getItemFromBulkResponse(String id) {
+            protected BulkItemResponse getItemFromBulkResponse(final Map<String, BulkItemResponse> bulkResult,
+                                                               final String id) {
                 return createBulkItemResponse(id);
             }
         };
@@ -158,7 +433,8 @@ public class ElasticSearchProxyTest {
 
     /**
      * Test {@link ElasticSearchProxy#writeItem(String, Object)} for a case multiple threads tries to write to
-     * the same instance of the {@link ElasticSearchProxy} at multiple points in time.
+     * the same instance of the {@link ElasticSearchProxy} at multiple points in time - every write arrives after the
+     * previous one was indexed, so every write should be indexed by a bulk of its own.
      */
     @Test
     public void writeToTarget_ManyThreadsTryToWrite_SlowArrivalRate() throws IOException, ExecutionException, InterruptedException {
@@ -167,32 +443,26 @@ public class ElasticSearchProxyTest {
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
 
         final BulkResponse bulkResponse = createBulkResponseExpectations(highLevelRestClient,ID);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenReturn(bulkResponse);
+        mockBulkResponse(highLevelRestClient, bulkResponse);
 
         final ElasticSearchGatewayHelper unitForTest = new ElasticSearchGatewayHelper(highLevelRestClient){
             @Override
-            protected BulkItemResponse getItemFromBulkResponse(String id) {
+            protected BulkItemResponse getItemFromBulkResponse(final Map<String, BulkItemResponse> bulkResult,
+                                                               final String id) {
                 return createBulkItemResponse(id);
             }
         };
 
         final int numOfThreads = 10;
         final ExecutorService executorService = Executors.newFixedThreadPool(numOfThreads);
-        final List<Future<Boolean>> futuresList = new ArrayList<>();
         for (Integer threadIndex = 0; threadIndex < numOfThreads; threadIndex++) {
             final String id = threadIndex.toString();
             Callable<Boolean> writeItemCallable = () -> writeItem(unitForTest, id);
 
-            futuresList.add(executorService.submit(writeItemCallable));
-
-            Thread.sleep(3);
+            Assert.assertTrue(executorService.submit(writeItemCallable).get());
         }
 
-        for (final Future<Boolean> future : futuresList) {
-            Assert.assertTrue(future.get());
-        }
-
-        Assert.assertTrue(unitForTest.indexToEsCounter > 1);
+        Assert.assertEquals(numOfThreads, unitForTest.indexToEsCounter.get());
     }
 
     /**
@@ -206,7 +476,7 @@ public class ElasticSearchProxyTest {
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
 
         final BulkResponse bulkResponse = createBulkResponseExpectations(highLevelRestClient,ID);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenReturn(bulkResponse);
+        mockBulkResponse(highLevelRestClient, bulkResponse);
 
         final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
         Thread.sleep(500);
@@ -233,7 +503,7 @@ public class ElasticSearchProxyTest {
         final RestHighLevelClientAdapter restClient = Mockito.mock(RestHighLevelClientAdapter.class);
         final ElasticSearchGatewayHelper unitForTest = new ElasticSearchGatewayHelper(restClient);
         Thread.sleep(50);
-        Assert.assertTrue(unitForTest.indexToEsCounter == 0);
+        Assert.assertEquals(0, unitForTest.indexToEsCounter.get());
     }
 
     /**
@@ -245,21 +515,21 @@ public class ElasticSearchProxyTest {
         final RestHighLevelClientAdapter restClient = Mockito.mock(RestHighLevelClientAdapter.class);
         final ElasticSearchGatewayHelper unitForTest = new ElasticSearchGatewayHelper(restClient);
         Thread.sleep(50);
-        Assert.assertTrue(unitForTest.indexToEsCounter == 0);
+        Assert.assertEquals(0, unitForTest.indexToEsCounter.get());
         Assert.assertTrue(unitForTest.runWorkerCounter > 0);
     }
 
     /**
-     * Test {@link ElasticSearchGatewayHelper#finalize()}
+     * Test {@link ElasticSearchProxy#close()} - the worker should stop.
      */
     @Test
-    public void finalize_NoNewRequests() throws InterruptedException {
+    public void close_NoNewRequests() throws InterruptedException {
         final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
         final RestClient restClient = Mockito.mock(RestClient.class);
         Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
 
         final ElasticSearchGatewayHelper unitForTest = new ElasticSearchGatewayHelper(highLevelRestClient);
-        unitForTest.finalize();
+        unitForTest.close();
 
         Thread.sleep(50);
 
@@ -270,6 +540,163 @@ public class ElasticSearchProxyTest {
         Assert.assertEquals(runCallsCounter, unitForTest.runWorkerCounter);
     }
 
+    /**
+     * Test {@link ElasticSearchProxy#close(Duration)} for pending items which didn't reach the linger time - they
+     * should be flushed and indexed before close returns.
+     */
+    @Test
+    public void close_PendingItemsFlushed() throws IOException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        createBulkResponseExpectations(highLevelRestClient, ID);
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxLingerMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+        final CompletableFuture<BulkItemResponse> result = unitForTest.writeItemAsync(ID, VALUE_STRING);
+
+        Assert.assertTrue(unitForTest.close(Duration.ofSeconds(5)));
+        Assert.assertEquals(ID, result.join().getId());
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#close(Duration)} for a close which times out while a writer waits for room in
+     * the buffer - the writer should fail rather than hang, and closing again should report the same result.
+     */
+    @Test(timeout = 5000)
+    public void close_TimedOut_BlockedWriterFails() throws InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        // The bulk is never answered, so the first item keeps its room in the buffer.
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withMaxBufferedActions(1)
+                .withBackpressurePolicy(BackpressurePolicy.BLOCK)
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        final CompletableFuture<BulkItemResponse> firstResult = unitForTest.writeItemAsync(ID, VALUE_STRING);
+        final CompletableFuture<BulkItemResponse> blockedResult = CompletableFuture
+                .supplyAsync(() -> unitForTest.writeItemAsync("otherId", VALUE_STRING))
+                .thenCompose(result -> result);
+        // Give the second writer time to block on the full buffer.
+        Thread.sleep(50);
+
+        Assert.assertFalse(unitForTest.close(Duration.ofMillis(100)));
+        Assert.assertFalse(unitForTest.close(Duration.ofMillis(100)));
+
+        for (final CompletableFuture<BulkItemResponse> result : Arrays.asList(firstResult, blockedResult)) {
+            try {
+                result.get();
+                Assert.fail();
+            } catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IndexingException);
+            }
+        }
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#writeItemAsync(String, Object)} after the proxy is closed - the write should
+     * be rejected.
+     */
+    @Test
+    public void writeItemAsync_Closed() throws InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
+        unitForTest.close();
+
+        try {
+            unitForTest.writeItemAsync(ID, VALUE_STRING).get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IndexingException);
+        }
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy} constructor for journaled writes to the same id which weren't indexed before
+     * a restart - they should be replayed in the configured {@link CoalescingMode}.
+     */
+    @Test(timeout = 5000)
+    public void constructor_JournalReplayed_CoalescingMode() throws IOException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final List<String> bulkBodies = Collections.synchronizedList(new ArrayList<>());
+        Mockito.doAnswer(invocation -> {
+            bulkBodies.add(EntityUtils.toString((HttpEntity) invocation.getArguments()[0]));
+            @SuppressWarnings("unchecked")
+            final ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            listener.onResponse(new BulkResponse(new BulkItemResponse[] { createBulkItemResponse(ID) }, 1));
+            return null;
+        }).when(highLevelRestClient).bulkAsync(Mockito.any(), Mockito.any());
+
+        final Path journalDirectory = this.folder.getRoot().toPath();
+        try (WriteAheadJournal journal = WriteAheadJournal.open(journalDirectory,
+                BulkProcessingConfig.DEFAULT_JOURNAL_SEGMENT_BYTES, 1)) {
+            journal.append(ID, "{\"namespaceMap\":{\"Older\":{\"value\":\"older\"}}}".getBytes());
+            journal.append(ID, "{\"namespaceMap\":{\"Newer\":{\"value\":\"newer\"}}}".getBytes());
+        }
+
+        final BulkProcessingConfig config = BulkProcessingConfig.createBuilder()
+                .withJournalDirectory(journalDirectory)
+                .withCoalescingMode(CoalescingMode.LAST_WRITER_WINS)
+                .build();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient, config);
+
+        Assert.assertTrue(unitForTest.close(Duration.ofSeconds(5)));
+        Assert.assertEquals(1, bulkBodies.size());
+        Assert.assertTrue(bulkBodies.get(0).contains("newer"));
+        Assert.assertFalse(bulkBodies.get(0).contains("older"));
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#splitToBatches(List, int, long)} where the items exceed the max number of
+     * actions in a bulk.
+     */
+    @Test
+    public void splitToBatches_MaxActions() {
+        final List<PendingItem> pendingItems = new ArrayList<>();
+        for (Integer itemIndex = 0; itemIndex < 5; itemIndex++) {
+            pendingItems.add(new PendingItem(itemIndex.toString(), new AttributesMap(), VALUE_STRING.getBytes()));
+        }
+
+        final List<List<PendingItem>> batches = ElasticSearchProxy.splitToBatches(pendingItems, 2, Long.MAX_VALUE);
+
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(2, batches.get(0).size());
+        Assert.assertEquals(2, batches.get(1).size());
+        Assert.assertEquals(1, batches.get(2).size());
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#splitToBatches(List, int, long)} where the items exceed the max size of
+     * a bulk - an item which is bigger than the max size should be sent by itself.
+     */
+    @Test
+    public void splitToBatches_MaxBytes() {
+        final List<PendingItem> pendingItems = new ArrayList<>();
+        pendingItems.add(new PendingItem("1", new AttributesMap(), "1234".getBytes()));
+        pendingItems.add(new PendingItem("2", new AttributesMap(), "1234".getBytes()));
+        pendingItems.add(new PendingItem("3", new AttributesMap(), "1234567890".getBytes()));
+        pendingItems.add(new PendingItem("4", new AttributesMap(), "1".getBytes()));
+
+        final List<List<PendingItem>> batches = ElasticSearchProxy.splitToBatches(pendingItems, 100, 8);
+
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(2, batches.get(0).size());
+        Assert.assertEquals(1, batches.get(1).size());
+        Assert.assertEquals(1, batches.get(2).size());
+    }
+
     /**
      * Test {@link ElasticSearchProxy#search(String)} for a null input.
      */
@@ -337,15 +764,192 @@ public class ElasticSearchProxyTest {
         Assert.assertNotNull(searchResponse);
     }
 
+    /**
+     * Test {@link ElasticSearchProxy#searchForSingleObjectAsync(Object, Class)} for a case where {@link RestClient}
+     * returns results for the given query - the hits should be decoded on the given executor.
+     */
+    @Test(timeout = 5000)
+    public void searchForSingleObjectAsync_WithResults() throws ExecutionException, InterruptedException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final Response searchResult = Mockito.mock(Response.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(200);
+        Mockito.when(searchResult.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(searchResult.getEntity()).thenReturn(new NStringEntity(
+                "{\"hits\":{\"hits\":[{\"_source\":{\"namespaceMap\":{\"SomeObject\":{\"someString\":\"a\"}}}}]}}",
+                ContentType.APPLICATION_JSON));
+
+        Mockito.doAnswer(invocation -> {
+            final ResponseListener listener = (ResponseListener) invocation.getArguments()[4];
+            listener.onSuccess(searchResult);
+            return null;
+        }).when(restClient).performRequestAsync(Mockito.any(String.class), Mockito.any(String.class),
+                Mockito.any(Map.class), Mockito.any(NStringEntity.class), Mockito.any(ResponseListener.class),
+                Mockito.<Header>anyVararg());
+
+        final AtomicInteger decodeTasks = new AtomicInteger();
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient,
+                BulkProcessingConfig.defaultConfig(), SearchConfig.defaultConfig(), task -> {
+                    decodeTasks.incrementAndGet();
+                    task.run();
+                });
+
+        final List<SomeObject> results = unitForTest.searchForSingleObjectAsync(
+                new SomeObject("a", 1, null, null), SomeObject.class).get();
+
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("a", results.get(0).getSomeString());
+        Assert.assertEquals(1, decodeTasks.get());
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#searchForSingleObjectAsync(Object, Class, SearchOptions)} - by default only
+     * the namespace of the class should be fetched, and explicit source fields should replace it.
+     */
+    @Test(timeout = 5000)
+    public void searchForSingleObjectAsync_SourceIncludes() throws ExecutionException, InterruptedException,
+            IOException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+
+        final Response searchResult = Mockito.mock(Response.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(200);
+        Mockito.when(searchResult.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(searchResult.getEntity()).thenAnswer(invocation -> new NStringEntity(
+                "{\"hits\":{\"hits\":[]}}", ContentType.APPLICATION_JSON));
+
+        final List<String> requestBodies = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            requestBodies.add(EntityUtils.toString((HttpEntity) invocation.getArguments()[3]));
+            final ResponseListener listener = (ResponseListener) invocation.getArguments()[4];
+            listener.onSuccess(searchResult);
+            return null;
+        }).when(restClient).performRequestAsync(Mockito.any(String.class), Mockito.any(String.class),
+                Mockito.any(Map.class), Mockito.any(NStringEntity.class), Mockito.any(ResponseListener.class),
+                Mockito.<Header>anyVararg());
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient,
+                BulkProcessingConfig.defaultConfig(), SearchConfig.defaultConfig(), Runnable::run);
+        final SomeObject searchObject = new SomeObject("a", 1, null, null);
+
+        unitForTest.searchForSingleObjectAsync(searchObject, SomeObject.class).get();
+        unitForTest.searchForSingleObjectAsync(searchObject, SomeObject.class,
+                SearchOptions.createBuilder().withSourceIncludes("namespaceMap.SomeObject.someString").build()).get();
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        Assert.assertEquals(Collections.singletonMap("includes", Collections.singletonList("namespaceMap.SomeObject")),
+                objectMapper.readValue(requestBodies.get(0), Map.class).get("_source"));
+        Assert.assertEquals(Collections.singletonMap("includes",
+                Collections.singletonList("namespaceMap.SomeObject.someString")),
+                objectMapper.readValue(requestBodies.get(1), Map.class).get("_source"));
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#count(Object, SearchOptions)} with a size, a sort and a timeout - the count
+     * body should have only the query.
+     */
+    @Test
+    public void count_OptionsWithSizeAndSort_QueryOnlyBody() throws IOException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+        final List<String> requestBodies = mockJsonRequest(restClient, "{\"count\":3}");
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
+        final SomeObject searchObject = new SomeObject("a", 1, null, null);
+
+        Assert.assertEquals(3, unitForTest.count(searchObject, createSizeAndSortOptions()));
+        Assert.assertEquals(Collections.singletonList(toQueryDsl(searchObject)), requestBodies);
+    }
+
+    /**
+     * Test {@link ElasticSearchProxy#exists(Object, SearchOptions)} with a size, a sort and a timeout - the body
+     * should have only the query, with a single size of 0 and a terminate after of 1.
+     */
+    @Test
+    public void exists_OptionsWithSizeAndSort_QueryOnlyBody() throws IOException {
+        final RestHighLevelClientAdapter highLevelRestClient = Mockito.mock(RestHighLevelClientAdapter.class);
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        Mockito.when(highLevelRestClient.getLowLevelClient()).thenReturn(restClient);
+        final List<String> requestBodies = mockJsonRequest(restClient, "{\"hits\":{\"total\":1,\"hits\":[]}}");
+
+        final ElasticSearchProxy unitForTest = new ElasticSearchProxy(highLevelRestClient);
+        final SomeObject searchObject = new SomeObject("a", 1, null, null);
+
+        Assert.assertTrue(unitForTest.exists(searchObject, createSizeAndSortOptions()));
+        final String queryDsl = toQueryDsl(searchObject);
+        Assert.assertEquals(Collections.singletonList(queryDsl.substring(0, queryDsl.lastIndexOf('}'))
+                + ", \"size\": 0, \"terminate_after\": 1}"), requestBodies);
+    }
+
+    private static SearchOptions createSizeAndSortOptions() {
+        return SearchOptions.createBuilder()
+                .withSize(5)
+                .withSorts(AttributeSort.ascending(SomeObject.class, "someInt"))
+                .withTimeoutMillis(100)
+                .build();
+    }
+
+    private static String toQueryDsl(final Object searchObject) throws IOException {
+        return new SearchableAttributesMapsList(AttributesMapsList.toAttributesMapsList(
+                Collections.singletonList(Collections.singletonList(searchObject)))).toDslQueryString();
+    }
+
+    /**
+     * Answers every request of the client with the given body, and collects the bodies of the requests.
+     */
+    private static List<String> mockJsonRequest(final RestClient restClient, final String responseBody)
+            throws IOException {
+        final Response response = Mockito.mock(Response.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(200);
+        Mockito.when(response.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(response.getEntity()).thenAnswer(invocation -> new NStringEntity(
+                responseBody, ContentType.APPLICATION_JSON));
+
+        final List<String> requestBodies = new ArrayList<>();
+        Mockito.when(restClient.performRequest(Mockito.any(String.class), Mockito.any(String.class),
+                Mockito.any(Map.class), Mockito.any(HttpEntity.class), Mockito.<Header>anyVararg()))
+                .thenAnswer(invocation -> {
+                    requestBodies.add(EntityUtils.toString((HttpEntity) invocation.getArguments()[3]));
+                    return response;
+                });
+        return requestBodies;
+    }
+
     private BulkResponse createBulkResponseExpectations(final RestHighLevelClientAdapter highLevelRestClient, final String id)
             throws IOException {
         final BulkItemResponse bulkItemResponse = createBulkItemResponse(id);
         final BulkItemResponse[] bulkItemResponses = new BulkItemResponse[] { bulkItemResponse };
         final BulkResponse bulkResponse = new BulkResponse(bulkItemResponses, 1);
-        Mockito.when(highLevelRestClient.bulk(Mockito.any())).thenReturn(bulkResponse);
+        mockBulkResponse(highLevelRestClient, bulkResponse);
         return bulkResponse;
     }
 
+    private void mockBulkResponse(final RestHighLevelClientAdapter highLevelRestClient,
+                                  final BulkResponse bulkResponse) {
+        Mockito.doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            listener.onResponse(bulkResponse);
+            return null;
+        }).when(highLevelRestClient).bulkAsync(Mockito.any(), Mockito.any());
+    }
+
+    private void mockBulkFailure(final RestHighLevelClientAdapter highLevelRestClient, final Exception e) {
+        Mockito.doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            listener.onFailure(e);
+            return null;
+        }).when(highLevelRestClient).bulkAsync(Mockito.any(), Mockito.any());
+    }
+
     private BulkItemResponse createBulkItemResponse(final String id) {
         final int version = 1;
         final ShardId shardId = Mockito.mock(ShardId.class);
@@ -354,21 +958,22 @@ public class ElasticSearchProxyTest {
     }
 
     private class ElasticSearchGatewayHelper extends ElasticSearchProxy {
-        public int indexToEsCounter = 0;
-        public int runWorkerCounter = 0;
+        public final AtomicInteger indexToEsCounter = new AtomicInteger();
+        // The worker starts in the constructor of the proxy, before an initializer of this class could run.
+        public volatile int runWorkerCounter;
 
         public ElasticSearchGatewayHelper(final RestHighLevelClientAdapter client) {
             super(client);
         }
 
         @Override
-        protected int getMinMillisBetweenCalls() {
+        protected long getMaxLingerMillis() {
             return 5;
         }
 
         @Override
-        protected void indexDataToEs() {
-            indexToEsCounter++;
+        protected void indexDataToEs() throws InterruptedException {
+            indexToEsCounter.incrementAndGet();
             super.indexDataToEs();
         }
 
@@ -0,0 +1,130 @@
+package es.oo.endpoint;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Test class for {@link InFlightSearches}.
+ */
+public class InFlightSearchesTest {
+
+    /**
+     * Test {@link InFlightSearches#search} for identical searches which are in flight together - only the
+     * first should be sent, and all should get its result.
+     */
+    @Test
+    public void search_InFlight_Coalesced() {
+        final InFlightSearches unitForTest = new InFlightSearches();
+        final CompletableFuture<String> sent = new CompletableFuture<>();
+        final AtomicInteger sentSearches = new AtomicInteger();
+
+        final CompletableFuture<String> first = unitForTest.search("key", () -> {
+            sentSearches.incrementAndGet();
+            return sent;
+        }, UnaryOperator.identity());
+        final CompletableFuture<String> second = unitForTest.search("key", () -> {
+            sentSearches.incrementAndGet();
+            return new CompletableFuture<>();
+        }, UnaryOperator.identity());
+
+        Assert.assertEquals(1, sentSearches.get());
+        Assert.assertFalse(second.isDone());
+
+        sent.complete("result");
+
+        Assert.assertEquals("result", first.join());
+        Assert.assertEquals("result", second.join());
+        Assert.assertEquals(0, unitForTest.size());
+    }
+
+    /**
+     * Test {@link InFlightSearches#search} for a search which starts after the identical search completed -
+     * it should be sent again.
+     */
+    @Test
+    public void search_Completed_SentAgain() {
+        final InFlightSearches unitForTest = new InFlightSearches();
+        final AtomicInteger sentSearches = new AtomicInteger();
+
+        unitForTest.search("key", () -> CompletableFuture.completedFuture(sentSearches.incrementAndGet()),
+                UnaryOperator.identity()).join();
+        unitForTest.search("key", () -> CompletableFuture.completedFuture(sentSearches.incrementAndGet()),
+                UnaryOperator.identity()).join();
+
+        Assert.assertEquals(2, sentSearches.get());
+    }
+
+    /**
+     * Test {@link InFlightSearches#search} for different keys - each search should be sent.
+     */
+    @Test
+    public void search_DifferentKeys_NotCoalesced() {
+        final InFlightSearches unitForTest = new InFlightSearches();
+        final AtomicInteger sentSearches = new AtomicInteger();
+
+        unitForTest.search("first", () -> {
+            sentSearches.incrementAndGet();
+            return new CompletableFuture<>();
+        }, UnaryOperator.identity());
+        unitForTest.search("second", () -> {
+            sentSearches.incrementAndGet();
+            return new CompletableFuture<>();
+        }, UnaryOperator.identity());
+
+        Assert.assertEquals(2, sentSearches.get());
+    }
+
+    /**
+     * Test {@link InFlightSearches#search} for a search which failed to be sent - its callers should fail,
+     * and the key shouldn't be kept.
+     */
+    @Test
+    public void search_SendFailed() {
+        final InFlightSearches unitForTest = new InFlightSearches();
+
+        final CompletableFuture<String> result = unitForTest.search("key", () -> {
+            throw new IllegalStateException();
+        }, UnaryOperator.identity());
+
+        Assert.assertTrue(result.isCompletedExceptionally());
+        Assert.assertEquals(0, unitForTest.size());
+    }
+
+    /**
+     * Test {@link InFlightSearches#search} for coalesced searches which are cancelled - the sent search should be
+     * cancelled only once all its callers cancelled, and the next search should be sent again.
+     */
+    @Test
+    public void search_AllCallersCancelled_SentSearchCancelled() {
+        final InFlightSearches unitForTest = new InFlightSearches();
+        final CompletableFuture<String> sent = new CompletableFuture<>();
+        final AtomicInteger sentSearches = new AtomicInteger();
+
+        final CompletableFuture<String> first = unitForTest.search("key", () -> {
+            sentSearches.incrementAndGet();
+            return sent;
+        }, UnaryOperator.identity());
+        final CompletableFuture<String> second = unitForTest.search("key", () -> {
+            sentSearches.incrementAndGet();
+            return new CompletableFuture<>();
+        }, UnaryOperator.identity());
+
+        first.cancel(false);
+        Assert.assertFalse(sent.isCancelled());
+        Assert.assertFalse(second.isDone());
+
+        second.cancel(false);
+        Assert.assertTrue(sent.isCancelled());
+        Assert.assertEquals(0, unitForTest.size());
+
+        unitForTest.search("key", () -> {
+            sentSearches.incrementAndGet();
+            return new CompletableFuture<>();
+        }, UnaryOperator.identity());
+        Assert.assertEquals(2, sentSearches.get());
+    }
+}
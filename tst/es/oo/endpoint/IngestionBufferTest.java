@@ -0,0 +1,79 @@
+package es.oo.endpoint;
+
+import es.oo.model.attributes.AttributesMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link IngestionBuffer}.
+ */
+public class IngestionBufferTest {
+    private final static String ID = "12345";
+    private final static byte[] SERIALIZED_ITEM = "{\"key\":\"value\"}".getBytes();
+
+    /**
+     * Test {@link IngestionBuffer#add(PendingItem)} for a new item.
+     */
+    @Test
+    public void add_NewItem() {
+        final IngestionBuffer unitForTest = new IngestionBuffer();
+        final PendingItem pendingItem = createPendingItem();
+
+        Assert.assertSame(pendingItem, unitForTest.add(pendingItem));
+        Assert.assertEquals(1, unitForTest.size());
+        Assert.assertEquals(SERIALIZED_ITEM.length, unitForTest.bytes());
+        Assert.assertTrue(unitForTest.getOldestItemNanos() > 0);
+    }
+
+    /**
+     * Test {@link IngestionBuffer#add(PendingItem)} for an id which is already buffered - the buffered item
+     * should be returned.
+     */
+    @Test
+    public void add_SameId() {
+        final IngestionBuffer unitForTest = new IngestionBuffer();
+        final PendingItem pendingItem = createPendingItem();
+
+        unitForTest.add(pendingItem);
+
+        Assert.assertSame(pendingItem, unitForTest.add(createPendingItem()));
+        Assert.assertEquals(1, unitForTest.size());
+    }
+
+    /**
+     * Test {@link IngestionBuffer#add(PendingItem)} for a sealed buffer - the item should be rejected.
+     */
+    @Test
+    public void add_SealedBuffer() {
+        final IngestionBuffer unitForTest = new IngestionBuffer();
+        unitForTest.seal();
+
+        Assert.assertNull(unitForTest.add(createPendingItem()));
+        Assert.assertTrue(unitForTest.isEmpty());
+    }
+
+    /**
+     * Test {@link IngestionBuffer#add(PendingItem, java.util.function.BinaryOperator)} for an id which is already
+     * buffered - the coalesced item should replace the buffered one and share its result.
+     */
+    @Test
+    public void add_SameId_Coalesced() {
+        final IngestionBuffer unitForTest = new IngestionBuffer();
+        final PendingItem pendingItem = createPendingItem();
+        final byte[] laterSerializedItem = "{}".getBytes();
+
+        unitForTest.add(pendingItem);
+        final PendingItem coalescedItem = unitForTest.add(new PendingItem(ID, new AttributesMap(), laterSerializedItem),
+                (bufferedItem, laterItem) -> bufferedItem.withContent(laterItem.getAttributesMap(),
+                        laterItem.getSerializedItem()));
+
+        Assert.assertSame(pendingItem.getResult(), coalescedItem.getResult());
+        Assert.assertEquals(1, unitForTest.size());
+        Assert.assertEquals(laterSerializedItem.length, unitForTest.bytes());
+        Assert.assertSame(coalescedItem, unitForTest.getItems().get(0));
+    }
+
+    private PendingItem createPendingItem() {
+        return new PendingItem(ID, new AttributesMap(), SERIALIZED_ITEM);
+    }
+}
@@ -0,0 +1,97 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import es.oo.exceptions.InternalServiceException;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test class for {@link MultiSearchBatcher}.
+ */
+public class MultiSearchBatcherTest {
+    private final static long LINGER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Test {@link MultiSearchBatcher#search(String)} for a full batch - the searches should be sent in a single
+     * request, one line each, and every response should be routed to its own search.
+     */
+    @Test
+    public void search_FullBatch() throws Exception {
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        final AtomicReference<String> requestBody = new AtomicReference<>();
+        mockMultiSearchResponse(restClient, requestBody,
+                "{\"took\":3,\"responses\":[{\"hits\":{\"hits\":[]},\"status\":200},"
+                        + "{\"error\":{\"type\":\"parsing_exception\"},\"status\":400}]}");
+
+        final MultiSearchBatcher unitForTest = new MultiSearchBatcher(restClient, "entities", 2, LINGER_MILLIS,
+                Runnable::run);
+
+        final CompletableFuture<TokenBuffer> firstResult = unitForTest.search("{\n  \"query\" : { }\n}");
+        Mockito.verifyZeroInteractions(restClient);
+        final CompletableFuture<TokenBuffer> secondResult = unitForTest.search("{ \"size\" : 1 }");
+
+        Assert.assertEquals("{}\n{\"query\":{}}\n{}\n{\"size\":1}\n", requestBody.get());
+        Assert.assertEquals("{\"hits\":{\"hits\":[]},\"status\":200}",
+                new ObjectMapper().writeValueAsString(firstResult.get()));
+
+        try {
+            secondResult.get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InternalServiceException);
+        }
+    }
+
+    /**
+     * Test {@link MultiSearchBatcher#close()} - the pending searches should be sent without waiting for the linger
+     * time.
+     */
+    @Test
+    public void close_PendingSearchesSent() throws Exception {
+        final RestClient restClient = Mockito.mock(RestClient.class);
+        final AtomicReference<String> requestBody = new AtomicReference<>();
+        mockMultiSearchResponse(restClient, requestBody, "{\"responses\":[{\"hits\":{\"hits\":[]}}]}");
+
+        final MultiSearchBatcher unitForTest = new MultiSearchBatcher(restClient, "entities", 10, LINGER_MILLIS,
+                Runnable::run);
+        final CompletableFuture<TokenBuffer> result = unitForTest.search("{}");
+        unitForTest.close();
+
+        Assert.assertEquals("{}\n{}\n", requestBody.get());
+        Assert.assertTrue(result.isDone());
+    }
+
+    private void mockMultiSearchResponse(final RestClient restClient, final AtomicReference<String> requestBody,
+                                         final String responseBody) {
+        final Response response = Mockito.mock(Response.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(200);
+        Mockito.when(response.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(response.getEntity()).thenReturn(new NStringEntity(responseBody, ContentType.APPLICATION_JSON));
+
+        Mockito.doAnswer(invocation -> {
+            final HttpEntity entity = (HttpEntity) invocation.getArguments()[3];
+            requestBody.set(EntityUtils.toString(entity));
+            final ResponseListener listener = (ResponseListener) invocation.getArguments()[4];
+            listener.onSuccess(response);
+            return null;
+        }).when(restClient).performRequestAsync(Mockito.any(String.class), Mockito.any(String.class),
+                Mockito.any(Map.class), Mockito.any(HttpEntity.class), Mockito.any(ResponseListener.class));
+    }
+}
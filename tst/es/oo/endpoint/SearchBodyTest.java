@@ -0,0 +1,52 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import es.oo.exceptions.InvalidDataException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Test class for {@link SearchBody}.
+ */
+public class SearchBodyTest {
+    private final static String QUERY_DSL = "{ \"query\": {\"match_all\":{}} }";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Test {@link SearchBody#withFields(ObjectMapper, String, Map)} for a few fields - they should be added to
+     * the top level of the body, after the query.
+     */
+    @Test
+    public void withFields_Added() throws IOException {
+        final String body = SearchBody.withFields(this.objectMapper, QUERY_DSL,
+                ImmutableMap.of("size", 0, "_source", ImmutableMap.of("includes", Collections.singletonList("a.b"))));
+
+        final Map<String, Object> expected = ImmutableMap.of(
+                "query", ImmutableMap.of("match_all", Collections.emptyMap()),
+                "size", 0,
+                "_source", ImmutableMap.of("includes", Collections.singletonList("a.b")));
+        Assert.assertEquals(expected, this.objectMapper.readValue(body, Map.class));
+    }
+
+    /**
+     * Test {@link SearchBody#withFields(ObjectMapper, String, Map)} without fields - the body shouldn't change.
+     */
+    @Test
+    public void withFields_NoFields() throws IOException {
+        Assert.assertSame(QUERY_DSL, SearchBody.withFields(this.objectMapper, QUERY_DSL, Collections.emptyMap()));
+    }
+
+    /**
+     * Test {@link SearchBody#withFields(ObjectMapper, String, Map)} for a body which isn't an object.
+     */
+    @Test(expected = InvalidDataException.class)
+    public void withFields_NotAnObject() throws IOException {
+        SearchBody.withFields(this.objectMapper, "[]", Collections.singletonMap("size", 0));
+    }
+}
@@ -0,0 +1,136 @@
+package es.oo.endpoint;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link SearchHedger}.
+ */
+public class SearchHedgerTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * Test {@link SearchHedger#send(java.util.function.Supplier)} for a slow search - the hedge should be sent
+     * after the delay, and its response should complete the search.
+     */
+    @Test
+    public void send_SlowSearch_Hedged() throws Exception {
+        final SearchHedger unitForTest = new SearchHedger(
+                HedgingPolicy.createBuilder().withSampleSize(1).withMinDelayMillis(10).build(), this.timer);
+        unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        final List<CompletableFuture<String>> requests = new ArrayList<>();
+
+        final CompletableFuture<String> result = unitForTest.send(() -> {
+            final CompletableFuture<String> request = new CompletableFuture<>();
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return request;
+        });
+
+        this.timer.schedule(() -> { }, 20, TimeUnit.MILLISECONDS).get();
+        synchronized (requests) {
+            Assert.assertEquals(2, requests.size());
+            requests.get(1).complete("hedge");
+            requests.get(0).complete("original");
+        }
+
+        Assert.assertEquals("hedge", result.join());
+    }
+
+    /**
+     * Test {@link SearchHedger#send(java.util.function.Supplier)} before enough latencies were recorded - the
+     * search shouldn't be hedged.
+     */
+    @Test
+    public void send_NotEnoughLatencies_NotHedged() {
+        final SearchHedger unitForTest = new SearchHedger(HedgingPolicy.createBuilder().withSampleSize(2).build(),
+                this.timer);
+        unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+
+        Assert.assertTrue(unitForTest.hedgeDelayNanos() < 0);
+    }
+
+    /**
+     * Test {@link SearchHedger#hedgeDelayNanos()} - the delay should be the percentile of the recorded latencies,
+     * but not less than the min delay.
+     */
+    @Test
+    public void hedgeDelayNanos_Percentile() {
+        final SearchHedger unitForTest = new SearchHedger(HedgingPolicy.createBuilder()
+                .withSampleSize(4).withPercentile(0.5).withMinDelayMillis(2).build(), this.timer);
+        for (final long latencyMillis : new long[] {1, 8, 4, 6}) {
+            unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(4), unitForTest.hedgeDelayNanos());
+
+        for (int i = 0; i < 4; i++) {
+            unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(2), unitForTest.hedgeDelayNanos());
+    }
+
+    /**
+     * Test {@link SearchHedger#hedgeDelayNanos()} once the window is full - the percentile should be recomputed
+     * only once a tenth of the latencies were replaced.
+     */
+    @Test
+    public void hedgeDelayNanos_RecomputedPeriodically() {
+        final SearchHedger unitForTest = new SearchHedger(HedgingPolicy.createBuilder()
+                .withSampleSize(20).withPercentile(0.99).withMinDelayMillis(0).build(), this.timer);
+        for (int i = 0; i < 20; i++) {
+            unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), unitForTest.hedgeDelayNanos());
+
+        unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), unitForTest.hedgeDelayNanos());
+
+        unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), unitForTest.hedgeDelayNanos());
+    }
+
+    /**
+     * Test {@link SearchHedger#send(java.util.function.Supplier)} for a search which failed before it was hedged -
+     * the search should fail, and shouldn't be hedged.
+     */
+    @Test
+    public void send_FailedBeforeHedge() throws Exception {
+        final SearchHedger unitForTest = new SearchHedger(
+                HedgingPolicy.createBuilder().withSampleSize(1).withMinDelayMillis(10).build(), this.timer);
+        unitForTest.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        final List<CompletableFuture<String>> requests = new ArrayList<>();
+
+        final CompletableFuture<String> result = unitForTest.send(() -> {
+            final CompletableFuture<String> request = new CompletableFuture<>();
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return request;
+        });
+        synchronized (requests) {
+            requests.get(0).completeExceptionally(new IllegalStateException());
+        }
+
+        Assert.assertTrue(result.isCompletedExceptionally());
+        this.timer.schedule(() -> { }, 20, TimeUnit.MILLISECONDS).get();
+        synchronized (requests) {
+            Assert.assertEquals(1, requests.size());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package es.oo.endpoint;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test class for {@link SearchHitsIterator}.
+ */
+public class SearchHitsIteratorTest {
+    private final static String SCROLL_ID = "scrollId";
+
+    /**
+     * Test {@link SearchHitsIterator} over a few pages - all the hits should be returned in order, and the scroll
+     * should be cleared once the last (partial) page is read.
+     */
+    @Test
+    public void iterate_MultiplePages() {
+        final FakeScrollClient scrollClient = new FakeScrollClient(
+                Lists.newArrayList("1", "2"), Lists.newArrayList("3", "4"), Lists.newArrayList("5"));
+        final SearchHitsIterator<String> unitForTest = new SearchHitsIterator<>(scrollClient, 2, Runnable::run);
+
+        final List<String> hits = new ArrayList<>();
+        unitForTest.forEachRemaining(hits::add);
+
+        Assert.assertEquals(Lists.newArrayList("1", "2", "3", "4", "5"), hits);
+        Assert.assertEquals(3, scrollClient.requests);
+        Assert.assertEquals(1, scrollClient.clearedScrolls);
+    }
+
+    /**
+     * Test {@link SearchHitsIterator#close()} before all the hits are read - the scroll should be cleared and no
+     * more pages should be fetched.
+     */
+    @Test
+    public void close_BeforeLastPage() {
+        final FakeScrollClient scrollClient = new FakeScrollClient(
+                Lists.newArrayList("1", "2"), Lists.newArrayList("3", "4"), Lists.newArrayList("5"));
+        final SearchHitsIterator<String> unitForTest = new SearchHitsIterator<>(scrollClient, 2, Runnable::run);
+
+        Assert.assertEquals("1", unitForTest.next());
+        unitForTest.close();
+
+        Assert.assertFalse(unitForTest.hasNext());
+        Assert.assertEquals(1, scrollClient.clearedScrolls);
+    }
+
+    private static class FakeScrollClient implements SearchHitsIterator.ScrollClient<String> {
+        private final Iterator<List<String>> pages;
+        private int requests = 0;
+        private int clearedScrolls = 0;
+
+        @SafeVarargs
+        private FakeScrollClient(final List<String>... pages) {
+            this.pages = Lists.newArrayList(pages).iterator();
+        }
+
+        @Override
+        public SearchPage<String> search() {
+            return nextPage();
+        }
+
+        @Override
+        public SearchPage<String> scroll(final String scrollId) {
+            Assert.assertEquals(SCROLL_ID, scrollId);
+            return nextPage();
+        }
+
+        @Override
+        public void clearScroll(final String scrollId) {
+            Assert.assertEquals(SCROLL_ID, scrollId);
+            this.clearedScrolls++;
+        }
+
+        private SearchPage<String> nextPage() {
+            this.requests++;
+            return new SearchPage<>(SCROLL_ID, this.pages.hasNext() ? this.pages.next() : new ArrayList<>());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package es.oo.endpoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import es.oo.exceptions.InternalServiceException;
+import es.oo.exceptions.InvalidDataException;
+import es.oo.model.attributes.AttributesMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class for {@link SearchResponseDecoder}.
+ */
+public class SearchResponseDecoderTest {
+    private final SearchResponseDecoder unitForTest = new SearchResponseDecoder(new ObjectMapper());
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(InputStream)} for a response with hits - the source of every hit
+     * should be decoded, and the other fields skipped.
+     */
+    @Test
+    public void decode_Hits() throws IOException {
+        final String response = "{\"took\":1,\"_shards\":{\"total\":5},\"hits\":{\"total\":2,\"max_score\":1.0,"
+                + "\"hits\":["
+                + "{\"_index\":\"entities\",\"_id\":\"1\",\"_source\":{\"namespaceMap\":{\"String\":{\"a\":\"1\"}}},"
+                + "\"sort\":[1]},"
+                + "{\"_id\":\"2\",\"_source\":{\"namespaceMap\":{\"String\":{\"b\":[\"2\",\"3\"]}}}}"
+                + "]},\"aggregations\":{}}";
+
+        final List<AttributesMap> attributesMaps = unitForTest.decode(toStream(response));
+
+        Assert.assertEquals(2, attributesMaps.size());
+        Assert.assertEquals("1", attributesMaps.get(0).getNamespaceMap().get("String").get("a"));
+        Assert.assertTrue(attributesMaps.get(1).getNamespaceMap().get("String").containsKey("b"));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(InputStream)} for a response which timed out - it should fail rather
+     * than return the partial hits.
+     */
+    @Test(expected = InternalServiceException.class)
+    public void decode_TimedOut() throws IOException {
+        final String response = "{\"took\":100,\"timed_out\":true,\"hits\":{\"total\":1,\"hits\":["
+                + "{\"_id\":\"1\",\"_source\":{\"namespaceMap\":{\"String\":{\"a\":\"1\"}}}}]}}";
+
+        unitForTest.decode(toStream(response));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(InputStream, Class)} - only the namespace of the class should be
+     * bound, and a hit without the namespace should be decoded as null.
+     */
+    @Test
+    public void decode_TypedHits() throws IOException {
+        final String response = "{\"hits\":{\"hits\":["
+                + "{\"_source\":{\"namespaceMap\":{\"Other\":{\"name\":\"x\"},\"Person\":{\"name\":\"a\"},"
+                + "\"Last\":{}},\"extra\":[1]},\"_id\":\"1\"},"
+                + "{\"_source\":{\"namespaceMap\":{\"Other\":{\"name\":\"y\"}}}},"
+                + "{\"_source\":{\"namespaceMap\":{\"Person\":{\"name\":\"b\"}}}}"
+                + "]}}";
+
+        final List<Person> persons = unitForTest.decode(toStream(response), Person.class);
+
+        Assert.assertEquals(3, persons.size());
+        Assert.assertEquals("a", persons.get(0).name);
+        Assert.assertNull(persons.get(1));
+        Assert.assertEquals("b", persons.get(2).name);
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(JsonParser, Class)} for a response which was buffered as tokens - it
+     * should be decoded like a response stream.
+     */
+    @Test
+    public void decode_BufferedTokens() throws IOException {
+        final String response =
+                "{\"hits\":{\"hits\":[{\"_source\":{\"namespaceMap\":{\"Person\":{\"name\":\"a\"}}}}]}}";
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final TokenBuffer tokens = new TokenBuffer(objectMapper, false);
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            parser.nextToken();
+            tokens.copyCurrentStructure(parser);
+        }
+
+        final List<Person> persons = unitForTest.decode(tokens.asParser(), Person.class);
+
+        Assert.assertEquals(1, persons.size());
+        Assert.assertEquals("a", persons.get(0).name);
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(InputStream)} for an empty response.
+     */
+    @Test
+    public void decode_EmptyResponse() throws IOException {
+        Assert.assertTrue(unitForTest.decode(toStream("")).isEmpty());
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decode(InputStream)} for a response without hits.
+     */
+    @Test(expected = InvalidDataException.class)
+    public void decode_MissingHits() throws IOException {
+        unitForTest.decode(toStream("{\"took\":1,\"timed_out\":false}"));
+    }
+
+    public static class Person {
+        public String name;
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeDocument(InputStream, Class)} for a found document, and for a
+     * document which wasn't found.
+     */
+    @Test
+    public void decodeDocument() throws IOException {
+        final String found = "{\"_index\":\"entities\",\"_type\":\"attributes\",\"_id\":\"1\",\"_version\":2,"
+                + "\"found\":true,\"_source\":{\"namespaceMap\":{\"Person\":{\"name\":\"a\"}}}}";
+        final String notFound = "{\"_index\":\"entities\",\"_type\":\"attributes\",\"_id\":\"2\",\"found\":false}";
+
+        Assert.assertEquals("a", unitForTest.decodeDocument(toStream(found), Person.class).name);
+        Assert.assertNull(unitForTest.decodeDocument(toStream(notFound), Person.class));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeDocuments(InputStream, Class)} - the found documents should be
+     * decoded by their ids, and the others left out.
+     */
+    @Test
+    public void decodeDocuments() throws IOException {
+        final String response = "{\"docs\":["
+                + "{\"_id\":\"1\",\"found\":true,\"_source\":{\"namespaceMap\":{\"Person\":{\"name\":\"a\"}}}},"
+                + "{\"_id\":\"2\",\"found\":false},"
+                + "{\"_source\":{\"namespaceMap\":{\"Person\":{\"name\":\"c\"}}},\"found\":true,\"_id\":\"3\"}"
+                + "]}";
+
+        final Map<String, Person> persons = unitForTest.decodeDocuments(toStream(response), Person.class);
+
+        Assert.assertEquals(2, persons.size());
+        Assert.assertEquals("a", persons.get("1").name);
+        Assert.assertEquals("c", persons.get("3").name);
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeTotalHits(InputStream)} - the total of the outer hits object should
+     * be decoded, and the fields before it skipped.
+     */
+    @Test
+    public void decodeTotalHits() throws IOException {
+        final String response = "{\"took\":1,\"terminated_early\":true,\"_shards\":{\"total\":5},"
+                + "\"hits\":{\"max_score\":0.0,\"total\":1,\"hits\":[]}}";
+
+        Assert.assertEquals(1, unitForTest.decodeTotalHits(toStream(response)));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeCount(InputStream)} for a {@code _count} response.
+     */
+    @Test
+    public void decodeCount() throws IOException {
+        final String response = "{\"_shards\":{\"total\":5,\"successful\":5},\"count\":42}";
+
+        Assert.assertEquals(42, unitForTest.decodeCount(toStream(response)));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeCount(InputStream)} for a response without a count.
+     */
+    @Test(expected = InvalidDataException.class)
+    public void decodeCount_MissingCount() throws IOException {
+        unitForTest.decodeCount(toStream("{\"_shards\":{\"total\":5}}"));
+    }
+
+    /**
+     * Test {@link SearchResponseDecoder#decodeAggregations(InputStream, String)} for a bucket aggregation and a
+     * metric aggregation under a nested aggregation.
+     */
+    @Test
+    public void decodeAggregations() throws IOException {
+        final String response = "{\"took\":1,\"hits\":{\"total\":3,\"hits\":[]},\"aggregations\":{"
+                + "\"namespaceMap\":{\"doc_count\":3,"
+                + "\"names\":{\"doc_count_error_upper_bound\":0,\"buckets\":["
+                + "{\"key\":\"a\",\"doc_count\":2},{\"key\":\"b\",\"doc_count\":1}]},"
+                + "\"maxAge\":{\"value\":42.0},"
+                + "\"minAge\":{\"value\":null}}}}";
+
+        final Map<String, AggregationResult> results = unitForTest.decodeAggregations(toStream(response),
+                "namespaceMap");
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(2, results.get("names").getBuckets().size());
+        Assert.assertEquals("a", results.get("names").getBuckets().get(0).getKey());
+        Assert.assertEquals(2, results.get("names").getBuckets().get(0).getDocCount());
+        Assert.assertNull(results.get("names").getValue());
+        Assert.assertEquals(42.0, results.get("maxAge").getValue(), 0);
+        Assert.assertTrue(results.get("maxAge").getBuckets().isEmpty());
+        Assert.assertNull(results.get("minAge").getValue());
+    }
+
+    private static InputStream toStream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
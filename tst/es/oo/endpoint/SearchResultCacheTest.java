@@ -0,0 +1,134 @@
+package es.oo.endpoint;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import es.oo.model.attributes.AttributesMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link SearchResultCache}.
+ */
+public class SearchResultCacheTest {
+    private final static String QUERY_DSL = "{\"query\":{}}";
+    private final static long TTL_MILLIS = 60 * 1000;
+
+    /**
+     * Test {@link SearchResultCache#get(String)} for a cached query.
+     */
+    @Test
+    public void get_Cached() {
+        final SearchResultCache unitForTest = new SearchResultCache(10, TTL_MILLIS, 0);
+        final List<AttributesMap> results = Lists.newArrayList(createAttributesMap("Result"));
+
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")), results,
+                unitForTest.currentTimeNanos());
+
+        Assert.assertEquals(results.get(0).getNamespaceMap(), unitForTest.get(QUERY_DSL).get(0).getNamespaceMap());
+    }
+
+    /**
+     * Test {@link SearchResultCache#get(String)} for results which a caller changed - the cached results, and the
+     * results of other callers, should stay as they were.
+     */
+    @Test
+    public void get_ResultsChanged_CachedResultsUnchanged() {
+        final SearchResultCache unitForTest = new SearchResultCache(10, TTL_MILLIS, 0);
+        final List<AttributesMap> results = Lists.newArrayList(createAttributesMap("Result"));
+
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")), results,
+                unitForTest.currentTimeNanos());
+        results.get(0).getNamespaceMap().get("Result").put("attribute", "put");
+        final List<AttributesMap> cachedResults = unitForTest.get(QUERY_DSL);
+        cachedResults.get(0).getNamespaceMap().get("Result").put("attribute", "get");
+        cachedResults.clear();
+
+        Assert.assertEquals(1, unitForTest.get(QUERY_DSL).size());
+        Assert.assertTrue(unitForTest.get(QUERY_DSL).get(0).getNamespaceMap().get("Result").isEmpty());
+    }
+
+    /**
+     * Test {@link SearchResultCache#invalidate(java.util.Collection)} for a namespace of the query, and for a
+     * namespace of the results - the cached results should be stale.
+     */
+    @Test
+    public void invalidate_Namespace() {
+        final FakeTicker ticker = new FakeTicker();
+        final SearchResultCache unitForTest = new SearchResultCache(10, TTL_MILLIS, 0, ticker);
+
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")),
+                Lists.newArrayList(createAttributesMap("Result")), unitForTest.currentTimeNanos());
+        unitForTest.invalidate(Collections.singleton("Query"));
+        Assert.assertNull(unitForTest.get(QUERY_DSL));
+
+        ticker.advanceMillis(1);
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")),
+                Lists.newArrayList(createAttributesMap("Result")), unitForTest.currentTimeNanos());
+        unitForTest.invalidate(Collections.singleton("Other"));
+        Assert.assertNotNull(unitForTest.get(QUERY_DSL));
+        unitForTest.invalidate(Collections.singleton("Result"));
+        Assert.assertNull(unitForTest.get(QUERY_DSL));
+    }
+
+    /**
+     * Test {@link SearchResultCache#put(String, java.util.Collection, List, long)} for results of a search which
+     * raced with a write - they should be stale.
+     */
+    @Test
+    public void put_WriteDuringSearch() {
+        final SearchResultCache unitForTest = new SearchResultCache(10, TTL_MILLIS, 0);
+
+        final long searchStartNanos = unitForTest.currentTimeNanos();
+        unitForTest.invalidate(Collections.singleton("Query"));
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")),
+                Lists.newArrayList(createAttributesMap("Result")), searchStartNanos);
+
+        Assert.assertNull(unitForTest.get(QUERY_DSL));
+    }
+
+    /**
+     * Test {@link SearchResultCache#invalidate(java.util.Collection)} for searches which are sent before the next
+     * refresh - their results may miss the write, so they should be stale.
+     */
+    @Test
+    public void invalidate_SearchBeforeRefresh() {
+        final FakeTicker ticker = new FakeTicker();
+        final SearchResultCache unitForTest = new SearchResultCache(10, TTL_MILLIS, 1000, ticker);
+
+        unitForTest.invalidate(Collections.singleton("Query"));
+        ticker.advanceMillis(999);
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")),
+                Lists.newArrayList(createAttributesMap("Result")), unitForTest.currentTimeNanos());
+        Assert.assertNull(unitForTest.get(QUERY_DSL));
+
+        ticker.advanceMillis(2);
+        unitForTest.put(QUERY_DSL, Lists.newArrayList(createAttributesMap("Query")),
+                Lists.newArrayList(createAttributesMap("Result")), unitForTest.currentTimeNanos());
+        Assert.assertNotNull(unitForTest.get(QUERY_DSL));
+    }
+
+    private static AttributesMap createAttributesMap(final String namespace) {
+        final Map<String, Map<String, Object>> namespaceMap = new HashMap<>();
+        namespaceMap.put(namespace, new HashMap<>());
+        return new AttributesMap(namespaceMap);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return this.nanos;
+        }
+
+        private void advanceMillis(final long millis) {
+            this.nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package es.oo.journal;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Test class for {@link WriteAheadJournal}.
+ */
+public class WriteAheadJournalTest {
+    private final static long SEGMENT_BYTES = 1024;
+    private final static long FSYNC_INTERVAL_MILLIS = 1;
+    private final static String ID = "12345";
+    private final static byte[] DOCUMENT = "{\"key\":\"value\"}".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test {@link WriteAheadJournal#append(String, byte[])} - the records should be durable, and recovered when
+     * the journal is opened again.
+     */
+    @Test
+    public void append_RecoveredOnOpen() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            unitForTest.append(ID, DOCUMENT).getDurable().join();
+            unitForTest.append("other", DOCUMENT).getDurable().join();
+        }
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            final List<JournalRecord> records = unitForTest.getRecoveredRecords();
+
+            Assert.assertEquals(2, records.size());
+            Assert.assertEquals(ID, records.get(0).getId());
+            Assert.assertArrayEquals(DOCUMENT, records.get(0).getDocument());
+            Assert.assertEquals("other", records.get(1).getId());
+        }
+    }
+
+    /**
+     * Test {@link WriteAheadJournal#acknowledge(JournalRecord)} - segments which all their records are acknowledged
+     * should be deleted, and nothing should be recovered.
+     */
+    @Test
+    public void acknowledge_SegmentsDeleted() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            // Enough records to roll a few segments.
+            for (int i = 0; i < 100; i++) {
+                final JournalRecord record = unitForTest.append(ID + i, DOCUMENT);
+                record.getDurable().join();
+                unitForTest.acknowledge(record);
+            }
+        }
+
+        Assert.assertEquals(0, folder.getRoot().list().length);
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            Assert.assertTrue(unitForTest.getRecoveredRecords().isEmpty());
+        }
+    }
+
+    /**
+     * Test {@link WriteAheadJournal#open(Path, long, long)} for a segment with a torn record - the records before
+     * it should be recovered.
+     */
+    @Test
+    public void open_TornRecord() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            unitForTest.append(ID, DOCUMENT).getDurable().join();
+            unitForTest.append("54321", DOCUMENT).getDurable().join();
+        }
+
+        // Corrupt the last byte of the second record.
+        final File segment = folder.getRoot().listFiles()[0];
+        final long secondRecordEnd = 2L * (3 * Integer.BYTES + ID.length() + DOCUMENT.length) - 1;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(secondRecordEnd);
+            file.write('x');
+        }
+
+        try (WriteAheadJournal unitForTest = WriteAheadJournal.open(directory, SEGMENT_BYTES, FSYNC_INTERVAL_MILLIS)) {
+            final List<JournalRecord> records = unitForTest.getRecoveredRecords();
+
+            Assert.assertEquals(1, records.size());
+            Assert.assertEquals(ID, records.get(0).getId());
+        }
+    }
+}
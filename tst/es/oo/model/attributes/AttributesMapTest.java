@@ -155,4 +155,32 @@ public class AttributesMapTest {
         assertThat(optionals.size(), equalTo(1));
         assertThat(Boolean.parseBoolean(optionals.get("present").toString()), equalTo(false));
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests {@link AttributesMap#merge(AttributesMap)} - attributes of both maps should be kept, the attributes of
+     * the given map should win, and map attributes should be merged.
+     */
+    @Test
+    public void merge_SameNamespace() throws IOException {
+        final Map<String, String> otherStringsMap = new HashMap<>();
+        otherStringsMap.put("otherKey", STRING_VALUE);
+        final AttributesMap attributesMap =
+                AttributesMap.toAttributesMap(new SomeObject(STRING_VALUE, INT_VALUE, STRINGS_MAP, null));
+        final AttributesMap otherAttributesMap =
+                AttributesMap.toAttributesMap(new SomeObject(null, INT_VALUE_2, otherStringsMap, STRINGS_LIST));
+
+        final AttributesMap mergedAttributesMap = attributesMap.merge(otherAttributesMap);
+
+        final Map<String, Object> attributes =
+                mergedAttributesMap.getNamespaceMap().get(SomeObject.class.getSimpleName());
+        assertThat(attributes.size(), equalTo(4));
+        assertThat(attributes.get("someString"), equalTo(STRING_VALUE));
+        assertThat(attributes.get("someInt"), equalTo(INT_VALUE_2));
+        assertThat(((Map) attributes.get("valuesMap")).size(), equalTo(2));
+        assertThat(attributes.get("valuesList"), equalTo(STRINGS_LIST));
+
+        // The merged maps aren't changed.
+        assertThat(attributesMap.getNamespaceMap().get(SomeObject.class.getSimpleName()).get("someInt"),
+                equalTo(INT_VALUE));
+    }
+}
@@ -0,0 +1,88 @@
+package es.oo.model.attributes.searchable;
+
+import com.google.common.collect.Lists;
+import es.oo.model.attributes.AttributesMapsList;
+import es.oo.model.attributes.SomeObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test Class {@link SearchableAttributesMapsList}.
+ */
+public class SearchableAttributesMapsListTest {
+
+    /**
+     * Test {@link SearchableAttributesMapsList#toDslQueryString()} for queries of the same shape - the DSL which is
+     * bound into the template should be the same as the DSL which is rendered from the query builders.
+     */
+    @Test
+    public void toDslQueryString_SameShape() throws IOException {
+        final SearchableAttributesMapsList first = toSearchableAttributesMapsList(
+                new SomeObject("first \"quoted\"", 1, createValuesMap("a"), null));
+        final SearchableAttributesMapsList second = toSearchableAttributesMapsList(
+                new SomeObject("second", 2, createValuesMap("b"), null));
+
+        assertThat(first.toDslQueryString(), equalTo(first.renderDslQueryString(QueryMode.MATCH)));
+        assertThat(second.toDslQueryString(), equalTo(second.renderDslQueryString(QueryMode.MATCH)));
+    }
+
+    /**
+     * Test {@link SearchableAttributesMapsList#toDslQueryString()} for queries of different shapes - each one
+     * should get its own template.
+     */
+    @Test
+    public void toDslQueryString_DifferentShapes() throws IOException {
+        final SearchableAttributesMapsList withMap = toSearchableAttributesMapsList(
+                new SomeObject("value", 1, createValuesMap("a"), null));
+        final SearchableAttributesMapsList withoutMap = toSearchableAttributesMapsList(
+                new SomeObject("value", 1, null, null));
+
+        assertThat(withMap.toDslQueryString(), equalTo(withMap.renderDslQueryString(QueryMode.MATCH)));
+        assertThat(withoutMap.toDslQueryString(), equalTo(withoutMap.renderDslQueryString(QueryMode.MATCH)));
+    }
+
+    /**
+     * Test {@link SearchableAttributesMapsList#toDslQueryString(QueryMode)} in filter mode - text attributes
+     * should be matched exactly on their keyword field, other attributes on their own field, and nothing should
+     * be scored.
+     */
+    @Test
+    public void toDslQueryString_FilterMode() throws IOException {
+        final SearchableAttributesMapsList searchableAttributesMapsList = toSearchableAttributesMapsList(
+                new SomeObject("value", 1, createValuesMap("a"), null));
+
+        // The match template of the same shape shouldn't be reused.
+        searchableAttributesMapsList.toDslQueryString(QueryMode.MATCH);
+        final String queryDsl = searchableAttributesMapsList.toDslQueryString(QueryMode.FILTER);
+
+        assertThat(queryDsl, equalTo(searchableAttributesMapsList.renderDslQueryString(QueryMode.FILTER)));
+        assertThat(queryDsl, containsString("\"namespaceMap.SomeObject.someString.keyword\""));
+        assertThat(queryDsl, containsString("\"namespaceMap.SomeObject.valuesMap.key.keyword\""));
+        assertThat(queryDsl, containsString("\"namespaceMap.SomeObject.someInt\""));
+        assertThat(queryDsl, not(containsString("someInt.keyword")));
+        assertThat(queryDsl, containsString("\"score_mode\" : \"none\""));
+        assertThat(queryDsl, not(containsString("\"match\"")));
+    }
+
+    private static SearchableAttributesMapsList toSearchableAttributesMapsList(final Object searchObject)
+            throws IOException {
+        final List<List<Object>> searchObjectsLists = Lists.newArrayList();
+        searchObjectsLists.add(Lists.newArrayList(searchObject));
+        return new SearchableAttributesMapsList(AttributesMapsList.toAttributesMapsList(searchObjectsLists));
+    }
+
+    private static Map<String, String> createValuesMap(final String value) {
+        final Map<String, String> valuesMap = new HashMap<>();
+        valuesMap.put("key", value);
+        return valuesMap;
+    }
+}